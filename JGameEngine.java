@@ -1,31 +1,68 @@
+import java.awt.AlphaComposite;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Font;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.MouseInfo;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import com.sun.management.GarbageCollectionNotificationInfo;
 import javax.imageio.ImageIO;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
-import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.SourceDataLine;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.KeyStroke;
@@ -45,75 +82,152 @@ public class JGameEngine {
     /** Get how much time passed since last frame finished. This will be useful to write frame independent code by multiplication with this variable. */
     public volatile double deltaTime;
     private volatile int frameDelay;
+    private volatile int tickRate, tickMaxPerFrame;
+    private volatile double frameTime, frameAlpha;
     private JGameEngine.Window window;
+    private JGameEngine.Headless headless;
+    private JGameEngine.Screen screen;
+    private JGameEngine.Loop loop;
     private JGameEngine.Key keyboard;
     private JGameEngine.Mouse mouse;
+    private JGameEngine.Input input;
     private JGameEngine.Camera camera;
-    private JGameEngine.Quadtree collisionTree;
-    private JGameEngine.Audios audios;
+    private JGameEngine.Collisions collisions;
+    private volatile ForkJoinPool workers;
+    private ExecutorService loaders;
+    private volatile boolean collisionParallel;
+    private volatile boolean garbageCollect;
+    private final JGameEngine.Mixer mixer;
     private JGameEngine.Fonts fonts;
+    private JGameEngine.Assets assets;
+    private JGameEngine.Scaler scaler;
+    private volatile JGameEngine.Dirty dirty;
+    private volatile JGameEngine.Profiler profiler;
+    private volatile JGameEngine.Trace trace;
     
     // Initialize JGameEngine
     public JGameEngine() {
 	window = null;
+	headless = null;
+	screen = null;
+	loop = new JGameEngine.Loop();
 	keyboard = new JGameEngine.Key();
 	mouse = new JGameEngine.Mouse();
+	input = new JGameEngine.Input();
 	camera = new JGameEngine.Camera();
-	audios = new JGameEngine.Audios();
+	mixer = new JGameEngine.Mixer();
 	fonts = new JGameEngine.Fonts();
-	collisionTree = null;
+	assets = new JGameEngine.Assets();
+	scaler = new JGameEngine.Scaler();
+	collisions = null;
 	deltaTime = 0;
 	frameDelay = 0;
+	tickRate = 0; tickMaxPerFrame = 5;
+	frameTime = 0; frameAlpha = 1;
+    }
+    // Threads shared by everything that runs in parallel, only started once something needs them
+    private synchronized ForkJoinPool workers() { if(workers == null) workers = new ForkJoinPool(); return workers; }
+    // Threads that read assets in the background, mostly waiting on the disk so they're kept apart from the workers
+    private synchronized ExecutorService loaders() { 
+	if(loaders == null) loaders = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> { 
+	    Thread t = new Thread(r, "JGameEngine loader"); t.setDaemon(true); return t; 
+	});
+	return loaders; 
     }
     /** Get the delay between each each frame */
     int frameDelay() { return frameDelay; } 
     /** Set the delay between each each frame */
     void frameDelay(int delay) { frameDelay = delay; }
+    /** Call the garbage collector about every 10 seconds while the game runs in a window (off by default). Every call stops the game for a moment, 
+     so it's only worth it to keep the memory the game takes down. See memoryAllocationRate() to find what allocates instead */
+    void frameGarbageCollect(boolean stance) { garbageCollect = stance; }
+    /** Get the number of fixed updates per second, 0 means update() is called once per frame */
+    int frameTickRate() { return tickRate; }
+    /** Call update() and check collisions at a fixed rate of ticks per second (0 to update once per frame, the default). deltaTime stays constant, 
+     drawing happens as fast as frameDelay allows and sprites attached to Game Objects are interpolated between the last two updates */
+    void frameTickRate(int ticks) { tickRate = Math.max(0, ticks); }
+    /** Set the most updates that can run before a frame is drawn. If the game falls further behind the extra time is dropped instead of being caught up */
+    void frameTickLimit(int ticks) { tickMaxPerFrame = Math.max(1, ticks); }
+    /** Get how far the current frame is between the last update and the next one (0 to 1). It is always 1 when there is no tick rate */
+    public double frameAlpha() { return frameAlpha; }
+    /** Only draw again the parts of the screen that changed since the last frame, and don't show the frame at all if nothing did. A screen 
+     that stays still (a menu, a kiosk) then hardly uses the processor. Sprites and the draw functions are tracked, but things drawn straight 
+     onto draw() aren't: call frameRedraw() in the same frame to have them show */
+    void frameDirtyRegions(boolean stance) { dirty = stance ? (dirty != null ? dirty : new JGameEngine.Dirty()) : null; }
+    /** Draw the whole screen again on the next frame when frameDirtyRegions() is on */
+    void frameRedraw() { JGameEngine.Dirty d = dirty; if(d != null) d.all = true; }
     /** Set a game space. Clears out all objects and sprites and prepares a room with the given size for collisions. It is the logical boundary of the Game Area */
-    void setGameSpace(int room_width, int room_height) {
-	if(window != null) {
-	    window.game_loop_can_run = false;
-	    while(window.game_loop_running) {}
-	}	
-	if(collisionTree != null) collisionTree.clear();
-    	collisionTree = new JGameEngine.Quadtree(0, new Rectangle(room_width, room_height));
-	if(window != null) {
-	    window.objects.clear(); window.object_queue.clear(); window.object_queue_r.clear();
-	    window.sprites.clear(); window.sprite_queue.clear(); window.sprite_queue_r.clear(); 
-	    audios = new JGameEngine.Audios();
-	    fonts = new JGameEngine.Fonts();
-	    window.game_loop_can_run = true;
-	}	
+    void setGameSpace(int room_width, int room_height) { setGameSpace(room_width, room_height, "quadtree"); }
+    /** Set a game space, with the way collisions are searched for. "quadtree" (the default) suits most games, "sweep" sorts the masks along the longer side 
+     of the room and may be faster for levels that are long in one direction, like side-scrollers */
+    void setGameSpace(int room_width, int room_height, String broadphase) {
+	if(!"quadtree".equals(broadphase) && !"sweep".equals(broadphase)) { System.out.println("JGameEngine::setGameSpace() Unknown broadphase (" + broadphase + "), use quadtree or sweep"); broadphase = "quadtree"; }
+	loop.game_loop_can_run = false;
+	while(loop.game_loop_running) {}
+	if(collisions != null) collisions.clear();
+	collisions = new JGameEngine.Collisions(room_width, room_height, broadphase);
+	loop.objects.clear(); loop.object_queue.clear(); loop.object_queue_r.clear(); loop.parallel.clear();
+	loop.sprites.clear(room_width, room_height); loop.sprite_queue.clear(); loop.sprite_queue_r.clear(); 
+	fonts = new JGameEngine.Fonts();
+	loop.game_loop_can_run = true;
     }
     /** Actual window on the screen with positions x, y and dimensions width, height */
     void setWindow(String title, int x, int y, int width, int height) {
+	loop.stop();
 	if(window != null) { window.dispose(); window.onWindowClosing(); }
 	window = new JGameEngine.Window(title, x, y, width, height);
 	window.addWindowListener( new WindowAdapter() {
 	   @Override
 	   public void windowClosing( WindowEvent e ) {
 		window.onWindowClosing();
-		try {
-		    window.gameThread.join();
-		} catch( InterruptedException ex ) { ex.printStackTrace(); }
 		System.exit( 0 );
 	   }
 	});
+	headless = null; screen = window;
+	loop.simulated = 0;
+	loop.start();
     }
     /** Actual window on the screen with positions at the centre of the screen and dimensions width, height */
     void setWindow(String title, int width, int height) { setWindow(title, (screenWidth() - width) / 2, (screenHeight() - height) / 2, 16 * 50, 9 * 50); }
     /** Actual window on the screen with positions at the centre of the screen and dimensions 800, 450 with a default Game Space of 4000, 2250 (if not set) */
-    void setWindow(String title) { if(collisionTree == null) setGameSpace(4000, 2250); setWindow(title, 16 * 50, 9 * 50); }
+    void setWindow(String title) { if(collisions == null) setGameSpace(4000, 2250); setWindow(title, 16 * 50, 9 * 50); }
     /** Set a window with default settings 800, 450 with a default Game Space of 4000, 2250 (if not set) */
-    void setWindow() { if(collisionTree == null) setGameSpace(4000, 2250); setWindow("JGameEngine :)"); }
+    void setWindow() { if(collisions == null) setGameSpace(4000, 2250); setWindow("JGameEngine :)"); }
+    /** Run the game without a window, for example to simulate it on a server. If render is true every frame is drawn into an image of the given size (See headlessImage()),
+     otherwise nothing is drawn at all. Nothing runs until headlessStep() or headlessStart() is called. Every frame advances the game by 1/60 of a second (or one tick of frameTickRate()) no matter how long it really took */
+    void setHeadless(int width, int height, boolean render) {
+	loop.stop();
+	if(window != null) { window.dispose(); window.onWindowClosing(); window = null; }
+	headless = new JGameEngine.Headless(width, height, render);
+	screen = headless;
+	loop.simulated = 10.0 / 60;
+    }
+    /** Run the game without a window and without drawing, with a default Game Space of 4000, 2250 (if not set) */
+    void setHeadless() { if(collisions == null) setGameSpace(4000, 2250); setHeadless(16 * 50, 9 * 50, false); }
+    /** Run the given number of frames right away on the calling thread. Only works with setHeadless() and while headlessStart() isn't running */
+    void headlessStep(int frames) {
+	if(headless == null || loop.isRunning()) { System.out.println("JGameEngine::headlessStep() Can only step a headless game that isn't already running. use setHeadless()"); return; }
+	loop.simulated = tickRate > 0 ? 10.0 / tickRate : 10.0 / 60;
+	loop.step(frames);
+    }
+    /** Keep running frames of a headless game on a separate thread as fast as possible, until headlessStop() is called */
+    void headlessStart() {
+	if(headless == null) { System.out.println("JGameEngine::headlessStart() No headless game to run. use setHeadless()"); return; }
+	loop.simulated = tickRate > 0 ? 10.0 / tickRate : 10.0 / 60;
+	loop.start();
+    }
+    /** Stop a headless game started with headlessStart(), the current frame is finished first */
+    void headlessStop() { if(headless != null) loop.stop(); }
+    /** Get the image the headless game draws its frames into, null if it isn't rendering */
+    BufferedImage headlessImage() { return headless == null ? null : headless.image; }
     /** Get the screen width. */
     public int screenWidth() { return Toolkit.getDefaultToolkit().getScreenSize().width; }
     /** Get the screen height.  */
     public int screenHeight() { return Toolkit.getDefaultToolkit().getScreenSize().height; }
     /** Get the window . This is a raw value, See cameraWidth() for a more useful value. */
-    public int windowWidth() { return window.canvas.getSize().width; }
+    public int windowWidth() { return window != null ? window.canvas.getWidth() : screen.width(); }
     /** Get the window height. This is a raw value, See cameraHeight() for a more useful value. */
-    public int windowHeight() { return window.canvas.getSize().height; }
+    public int windowHeight() { return window != null ? window.canvas.getHeight() : screen.height(); }
     /** Set the background colour of the window */
     void windowBackground(Color c) { window.canvas.setBackground(c); }
     /** Set the icon of the window */
@@ -135,22 +249,24 @@ public class JGameEngine {
 	window.setVisible(true);
     }
     //~~~~~~~~~~ Rendering
-    private class Window extends JFrame implements Runnable {
-
-	private ArrayList<JGameEngine.Object> objects, object_queue, object_queue_r;
-	private ArrayList<JGameEngine.Sprite> sprites, sprite_queue, sprite_queue_r;
+    // Something the game loop can draw frames on, either the Window or an offscreen Headless screen
+    private interface Screen {
+	// Graphics to draw the next frame with
+	Graphics frameStart();
+	// Finish drawing the frame, returns true if it was lost and needs to be drawn again
+	boolean frameEnd(Graphics g);
+	// True if what was shown last has been lost and needs to be shown again
+	boolean frameLost();
+	// If false, frames are only simulated and sprites are not drawn
+	boolean rendering();
+	int width(); int height();
+    }
+    private class Window extends JFrame implements Screen {
 	private BufferStrategy bs;
-	private volatile boolean running; volatile boolean game_loop_can_run = true; volatile boolean game_loop_running;
-	private Thread gameThread;
-	private Graphics g = null;
-	private long last_time = System.currentTimeMillis();
 	private Canvas canvas;
-	private double garbage_time;
 	int x, y, width, height;
 	public Window(String title, int x, int y, int width, int height) {
 	    canvas = new Canvas();
-	    objects = new ArrayList<>(); object_queue = new ArrayList<>(); object_queue_r = new ArrayList<>();
-	    sprites = new ArrayList<>(); sprite_queue = new ArrayList<>(); sprite_queue_r = new ArrayList<>();
 	    this.x = x; this.y = y; this.width = width; this.height = height;
 	    init(title, x, y, width, height);
 	}
@@ -171,84 +287,455 @@ public class JGameEngine {
 	    canvas.createBufferStrategy( 2 );
 	    bs = canvas.getBufferStrategy();
 	    canvas.addMouseListener(mouse);
+	    canvas.addMouseMotionListener(mouse);
 	    requestFocus();
 	    addComponentListener(new ComponentAdapter() {  // Update canvas size on window resize
 		@Override public void componentResized(ComponentEvent evt) {
 		    canvas.setSize(getWidth(), getHeight());
 		}
 	    });
+	}
+	@Override public Graphics frameStart() {
+	    Graphics g = bs.getDrawGraphics();
+	    g.clearRect( 0, 0, getWidth(), getHeight() );
+	    return g;
+	}
+	@Override public boolean frameEnd(Graphics g) {
+	    if( g != null ) g.dispose();
+	    revalidate();
+	    if( bs.contentsRestored() ) return true;
+	    bs.show();
+	    return bs.contentsLost();
+	}
+	@Override public boolean frameLost() { return bs.contentsLost() || bs.contentsRestored(); }
+	@Override public boolean rendering() { return true; }
+	@Override public int width() { return width; }
+	@Override public int height() { return height; }
+	private void onWindowClosing() {
+	    loop.stop();
+	    System.gc();
+	}
+    }
+    // Offscreen screen used when there is no display. Frames are drawn into an image, or not drawn at all
+    private class Headless implements Screen {
+	private BufferedImage image;
+	private Graphics2D scratch;
+	private Font font;
+	private AffineTransform transform;
+	private int width, height;
+	Headless(int width, int height, boolean render) {
+	    this.width = width; this.height = height;
+	    if(render) image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	    // Text measuring and drawing calls from update() still need some Graphics to work with. 
+	    // It is kept for every frame and only reset, so simulating doesn't create any objects
+	    scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+	    font = scratch.getFont(); transform = scratch.getTransform();
+	}
+	@Override public Graphics frameStart() {
+	    if(image == null) {
+		scratch.setTransform(transform); scratch.setClip(null); scratch.setPaintMode();
+		scratch.setFont(font); scratch.setColor(Color.BLACK);
+		return scratch;
+	    }
+	    Graphics2D g = image.createGraphics();
+	    g.setBackground(Color.WHITE); g.clearRect(0, 0, width, height);
+	    g.setColor(Color.BLACK);
+	    return g;
+	}
+	@Override public boolean frameEnd(Graphics g) { if( g != null && g != scratch ) g.dispose(); return false; }
+	@Override public boolean frameLost() { return false; }
+	@Override public boolean rendering() { return image != null; }
+	@Override public int width() { return width; }
+	@Override public int height() { return height; }
+    }
+    // The game loop. Keeps the Game Space (objects and sprites) and runs frames on its own thread, 
+    // or one by one through step() when there is no window
+    private class Loop implements Runnable {
+	private Registry objects, parallel; // parallel has the objects that are also Parallel
+	private ArrayList<JGameEngine.Object> object_queue, object_queue_r;
+	private int parallel_batch;
+	private boolean updating_parallel; // while the update() of Parallel objects runs on the workers
+	private JGameEngine.Object updating; // the object whose update() is running on the game thread
+	private Sprites sprites;
+	private ArrayList<JGameEngine.Sprite> sprite_queue, sprite_queue_r;
+	private volatile boolean running; volatile boolean game_loop_can_run = true; volatile boolean game_loop_running;
+	private Thread gameThread;
+	private Graphics g = null;
+	private JGameEngine.Profiler profile; // of the frame being run
+	private JGameEngine.Trace frame_trace;
+	private boolean timed; // either of them is on
+	private double accumulator;
+	private double garbage_time;
+	private double allocated_time; // since the bytes allocated by the game thread were last looked at
+	private long allocated = -1, allocated_at; // the bytes, and System.nanoTime() when they were looked at
+	private volatile double allocation_rate = -1;
+	// Frame length used instead of the clock when simulating, 0 to use the real time
+	private volatile double simulated;
+	Loop() {
+	    objects = new Registry(true); object_queue = new ArrayList<>(); object_queue_r = new ArrayList<>(); parallel = new Registry(false);
+	    sprites = new Sprites(); sprite_queue = new ArrayList<>(); sprite_queue_r = new ArrayList<>();
+	}
+	private void start() {
+	    stop();
 	    gameThread = new Thread( this );
 	    gameThread.start();
 	}
+	private void stop() {
+	    running = false;
+	    if(gameThread != null && gameThread != Thread.currentThread()) {
+		try { gameThread.join(); } catch( InterruptedException ex ) { ex.printStackTrace(); }
+	    }
+	    gameThread = null;
+	}
+	private boolean isRunning() { return gameThread != null && gameThread.isAlive(); }
 	@Override
 	public void run() {
 	    running = true;
-	    if(collisionTree == null) { String err = "JGameEngine::Window No Game Space is set! use setGameSpace()"; try { throw new Exception(err); } catch(Exception e) { System.out.println(err); } }
+	    if(collisions == null) { String err = "JGameEngine::Loop No Game Space is set! use setGameSpace()"; try { throw new Exception(err); } catch(Exception e) { System.out.println(err); } }
+	    long last_time = System.nanoTime();
 	    while( running ) {
-		// Calculate time since last thread run as deltaTime => deltaTime can be used to
-		// implement framerate independant code		
-		long current_time = System.currentTimeMillis();
-		deltaTime = (current_time - last_time)/100f;
+		// Calculate time since last frame as frameTime (1 = 100ms) => deltaTime can be used to
+		// implement framerate independant code
+		long current_time = System.nanoTime();
+		double frame_time = simulated > 0 ? simulated : (current_time - last_time) / 1e8;
 		last_time = current_time;
 		
-		// A different thread might be trying to safely clear objects
-		if(game_loop_can_run) {
-		    game_loop_running = true;
-		    gameLoop();
-		}
-		game_loop_running = false;
+		frame(frame_time);
 		
-		// After ~10 seconds, call the garbage collector
-		garbage_time += deltaTime;
-		if(garbage_time > 100) {
+		// After ~10 seconds, call the garbage collector if asked to
+		garbage_time += frame_time;
+		if(garbage_time > 100 && garbageCollect) {
+		    long start = System.nanoTime();
 		    System.gc(); 
+		    traced("System.gc()", start);
 		    garbage_time = 0;
 		}
 	    }
 	}
-	private void gameLoop() {
+	// Run frames right away on the calling thread
+	private void step(int frames) {
+	    for(int i = 0; i < frames; i++) frame(simulated);
+	}
+	private void frame(double frame_time) {
+	    frameTime = frame_time;
+	    // A different thread might be trying to safely clear objects
+	    if(game_loop_can_run) {
+		game_loop_running = true;
+		gameLoop(frame_time);
+	    }
+	    game_loop_running = false;
+	    // About once a second, see how much the thread running the frames has allocated since the last time
+	    if((allocated_time += frame_time) >= 10) {
+		// Per second that really passed, the frame times are made up when the frames are simulated (see headlessStep())
+		long bytes = allocatedBytes(), now = System.nanoTime();
+		allocation_rate = bytes >= allocated && allocated >= 0 && now > allocated_at ? (bytes - allocated) / ((now - allocated_at) / 1e9) : -1;
+		allocated = bytes; allocated_at = now; allocated_time = 0;
+	    }
+	}
+	// Work out how many updates this frame needs. Without a tick rate there is one update per frame,
+	// with one the elapsed time is consumed in fixed steps and the leftover becomes the interpolation alpha
+	private int ticksDue(double frame_time) {
+	    if(tickRate <= 0) { accumulator = 0; deltaTime = frame_time; frameAlpha = 1; return 1; }
+	    double tick = 10.0 / tickRate;
+	    int ticks = 0;
+	    accumulator += frame_time;
+	    while(accumulator >= tick && ticks < tickMaxPerFrame) { accumulator -= tick; ticks++; }
+	    // Spiral of death: if the updates can't keep up, drop the backlog instead of growing it every frame
+	    if(accumulator >= tick) accumulator %= tick;
+	    deltaTime = tick; frameAlpha = accumulator / tick;
+	    return ticks;
+	}
+	private void gameLoop(double frame_time) {
+	    int ticks = ticksDue(frame_time);
+	    begin();
+	    JGameEngine.Dirty dirty = JGameEngine.this.dirty;
+	    if(dirty != null && screen.rendering()) { dirtyLoop(dirty, ticks); end(); return; }
+	    boolean redraw;
 	    do {
-	       do {
-		  Graphics g = null;
-		  try {
-			g = bs.getDrawGraphics();
-			g.clearRect( 0, 0, getWidth(), getHeight() );
-
-			keyboard.allow_remove_pressed = true; keyboard.allow_remove_released = true; 
-			mouse.allow_remove_clicked = true; mouse.allow_remove_released = true;
-
-			render(g);
-			
-			if(keyboard.allow_remove_released) { keyboard.removeReleased(); keyboard.allow_remove_released = false; }
-			if(keyboard.allow_remove_pressed) { keyboard.removePressed(); keyboard.allow_remove_pressed = false; }
-			if(mouse.allow_remove_clicked) { mouse.removeClicked(); mouse.allow_remove_clicked = false; }
-			if(mouse.allow_remove_released) { mouse.removeReleased(); mouse.allow_remove_released = false; }
-			if(frameDelay > 0) Thread.sleep(frameDelay);
-		  } catch (InterruptedException ex) { ex.printStackTrace(); } 
-		  finally { if( g != null ) g.dispose(); }
-	       } while( bs.contentsRestored() );
-	       bs.show();
-	    } while( bs.contentsLost() );
+		Graphics g = null;
+		try {
+		    g = screen.frameStart();
+		    this.g = g;
+		    if(timed) mark(Profiler.PRESENT);
+		    // Only update on the first attempt, a restored buffer just needs to be drawn again
+		    for(; ticks > 0; ticks--) tick();
+		    if(screen.rendering()) render(null);
+		    if(frameDelay > 0) { Thread.sleep(frameDelay); if(timed) mark(Profiler.IDLE); }
+		} catch (InterruptedException ex) { ex.printStackTrace(); } 
+		finally { redraw = screen.frameEnd(g); if(timed) mark(Profiler.PRESENT); }
+	    } while( redraw );
+	    end();
+	}
+	// The profiler and the trace recorder split the frame into phases: the time since the last mark went to the phase given
+	private void begin() {
+	    profile = profiler; frame_trace = trace;
+	    if(!(timed = profile != null || frame_trace != null)) return;
+	    long t = System.nanoTime();
+	    if(profile != null) profile.begin(t); 
+	    if(frame_trace != null) frame_trace.begin(t);
+	}
+	private void mark(int phase) {
+	    long t = System.nanoTime();
+	    if(profile != null) profile.mark(phase, t);
+	    if(frame_trace != null) frame_trace.mark(phase, t);
+	}
+	private void end() {
+	    if(profile != null) profile.end();
+	    if(frame_trace != null) frame_trace.end();
+	}
+	// A frame with dirty rectangles is drawn into the back buffer, which is only shown if some of it was drawn again (or the screen 
+	// lost it). An idle frame on a window then sleeps for the rest of a 60th of a second instead of running the next one right away
+	private void dirtyLoop(JGameEngine.Dirty dirty, int ticks) {
+	    long start = System.nanoTime();
+	    try {
+		g = dirty.start();
+		if(timed) mark(Profiler.RENDER);
+		for(; ticks > 0; ticks--) tick();
+		render(dirty);
+		if(frameDelay > 0) Thread.sleep(frameDelay);
+		long idle = 1000000000L / 60 - (System.nanoTime() - start);
+		if(!dirty.redrawn && simulated <= 0 && idle > 0) Thread.sleep(idle / 1000000, (int) (idle % 1000000));
+		if(timed) mark(Profiler.IDLE);
+	    } catch (InterruptedException ex) { ex.printStackTrace(); }
+	    if(!dirty.redrawn && !screen.frameLost()) return;
+	    boolean redraw;
+	    do {
+		Graphics g = null;
+		try {
+		    g = screen.frameStart();
+		    g.drawImage(dirty.back, 0, 0, null);
+		} finally { redraw = screen.frameEnd(g); }
+	    } while( redraw );
+	    if(timed) mark(Profiler.PRESENT);
 	}
 	// Run update code for each game object
-	private void render(Graphics ga) {
-	    g = ga;
+	private void tick() {
+	    input.update();
+
 	    // While running object loops, the objects may have requested to add/remove other objects, handle queue
-	    while(!object_queue.isEmpty()) { objects.add(object_queue.remove(0)); } while(!object_queue_r.isEmpty()) { objects.remove(object_queue_r.remove(0)); }
-	    while(!sprite_queue.isEmpty()) { sprites.add(sprite_queue.remove(0)); } while(!sprite_queue_r.isEmpty()) { sprites.remove(sprite_queue_r.remove(0)); }
-	    collisionTree.runCollisions();
-	    for(JGameEngine.Object o : objects) {
-		//o.preUpdate(); Might have a use later
-		o.update();
-	    }
-	    for(JGameEngine.Sprite s : sprites) {
+	    for(int i = 0; i < object_queue.size(); i++) { JGameEngine.Object o = object_queue.get(i); o.prev_x = o.x; o.prev_y = o.y; objects.add(o); if(o instanceof Parallel) parallel.add(o); } 
+	    object_queue.clear();
+	    for(int i = 0; i < object_queue_r.size(); i++) { JGameEngine.Object o = object_queue_r.get(i); objects.remove(o); parallel.remove(o); if(o.released) o.pool.recycle(o); }
+	    object_queue_r.clear();
+	    for(int i = 0; i < sprite_queue.size(); i++) sprites.add(sprite_queue.get(i)); sprite_queue.clear();
+	    for(int i = 0; i < sprite_queue_r.size(); i++) sprites.remove(sprite_queue_r.get(i)); sprite_queue_r.clear();
+	    if(timed) mark(Profiler.QUEUES);
+	    collisions.runCollisions();
+	    if(timed) mark(Profiler.COLLISIONS);
+	    camera.prev_x = camera.x; camera.prev_y = camera.y;
+	    // Parallel objects first, all of them are done before anything else runs
+	    if(parallel.count >= 32) {
+		ForkJoinPool pool = workers();
+		parallel_batch = Math.max(8, parallel.count / (pool.getParallelism() * 4));
+		updating_parallel = true;
+		try { pool.invoke(new Updates(0, parallel.count)); } finally { updating_parallel = false; }
+		for(int i = 0; i < parallel.count; i++) collisions.ran(parallel.list[i]);
+	    } else {
+		for(int i = 0; i < parallel.count; i++) update(parallel.list[i]);
+	    }
+	    // The name index isn't thread safe, so the names of Parallel objects are checked here after they're all done
+	    for(int i = 0; i < parallel.count; i++) objects.rename(parallel.list[i]);
+	    boolean sampled = profile != null && profile.sampling;
+	    for(int i = 0; i < objects.count; i++) {
+		JGameEngine.Object o = objects.list[i];
+		if(o instanceof Parallel) continue;
+		if(sampled) { long t = System.nanoTime(); update(o); profile.object(o, System.nanoTime() - t); } 
+		else update(o); 
+		objects.rename(o);
+	    }
+	    if(timed) mark(Profiler.UPDATES);
+	}
+	private void update(JGameEngine.Object o) {
+	    o.prev_x = o.x; o.prev_y = o.y;
+	    if(updating_parallel) { o.update(); return; }
+	    updating = o;
+	    try { o.update(); } finally { updating = null; }
+	    collisions.ran(o);
+	}
+	// Runs update() of a range of the Parallel objects, split up between the workers
+	private class Updates extends RecursiveAction {
+	    private static final long serialVersionUID = 1L;
+	    private int from, to;
+	    Updates(int from, int to) { this.from = from; this.to = to; }
+	    @Override protected void compute() {
+		if(to - from > parallel_batch) {
+		    int mid = (from + to) >>> 1;
+		    invokeAll(new Updates(from, mid), new Updates(mid, to));
+		    return;
+		}
+		for(int i = from; i < to; i++) update(parallel.list[i]);
+	    }
+	}
+	// Draw everything once per frame, no matter how many updates happened
+	private void render(JGameEngine.Dirty dirty) {
+	    for(int i = 0; i < objects.count; i++) {
+		objects.list[i].render();
+	    }
+	    if(timed) mark(Profiler.RENDER);
+	    ArrayList<JGameEngine.Sprite> queue = sprites.visible();
+	    // The overlay of the profiler goes on top of the sprites, with dirty regions it's drawn over them in the back buffer
+	    boolean overlay = profile != null && profile.overlay;
+	    if(dirty != null) dirty.sprites(queue, overlay ? profile : null);
+	    else for(int i = 0; i < queue.size(); i++) {
+		JGameEngine.Sprite s = queue.get(i);
 		s.draw(s, g);
 	    }
-	    revalidate();
+	    if(overlay && dirty == null) profile.draw(g, profile.lines());
+	    scaler.settled = true;
+	    if(profile != null) profile.drawn += queue.size();
+	    if(timed) mark(Profiler.SPRITES);
 	}
-	private void onWindowClosing() {
-	    running = false;
-	    System.gc();
+    }
+    // An image of the given size in the format of the screen (see Assets.compatible()), premultiplied ARGB or RGB without a screen
+    private BufferedImage screenImage(int w, int h, int transparency) {
+	GraphicsConfiguration gc = null;
+	if(!GraphicsEnvironment.isHeadless()) {
+	    if(window != null) gc = window.canvas.getGraphicsConfiguration();
+	    if(gc == null) gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	}
+	if(gc != null) return gc.createCompatibleImage(w, h, transparency);
+	return new BufferedImage(w, h, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+    // Dirty rectangle rendering, see frameDirtyRegions(). The frame is kept in a back buffer and only the parts of the screen that changed 
+    // are drawn again, clipped to them: where sprites were and are now if they moved, animated, came or went, and where draw calls were 
+    // and are now if they aren't the same as last frame's. Draw calls go onto a see-through overlay that is kept as well, the parts the 
+    // last frame's calls covered are cleared from it at the start of every frame
+    private class Dirty {
+	private static final int MARGIN = 2; // outlines and text reach a little past the box they're drawn in
+	private static final int MOST = 64; // with more regions than this (after joining the ones that overlap) the whole screen is drawn again
+	private BufferedImage back, overlay;
+	private Graphics2D g; // draws on the overlay, kept for every frame and only reset
+	private Font font;
+	private AffineTransform transform;
+	private Ints calls = new Ints(), last_calls = new Ints(); // x, y, width, height and what was drawn of every draw call
+	private Ints regions = new Ints(); // x, y, width, height of the parts of the screen to draw again
+	private ArrayList<JGameEngine.Sprite> shown = new ArrayList<>(), showing = new ArrayList<>();
+	private JGameEngine.Screen target;
+	private int frame = 1;
+	private volatile boolean all = true; // draw the whole screen again
+	private boolean redrawn; // some of the back buffer was drawn again this frame
+	private double camera_x, camera_y, camera_d;
+	private final Rectangle area = new Rectangle();
+	private JGameEngine.Profiler top; private String[] top_lines; // the profiler whose overlay is drawn over the sprites, and the summary in it
+	private final Rectangle top_area = new Rectangle(); // where the overlay of the profiler is on screen
+	// Get the overlay ready for the draw calls of a new frame
+	private Graphics start() {
+	    frame++;
+	    int w = Math.max(1, windowWidth()), h = Math.max(1, windowHeight());
+	    boolean wipe = all; // things drawn straight onto draw() may be anywhere on the overlay
+	    all = target != screen;
+	    target = screen;
+	    if(back == null || back.getWidth() != w || back.getHeight() != h) {
+		back = screenImage(w, h, Transparency.OPAQUE); overlay = screenImage(w, h, Transparency.TRANSLUCENT);
+		if(g != null) g.dispose();
+		g = overlay.createGraphics();
+		font = g.getFont(); transform = g.getTransform();
+		all = true; wipe = false;
+	    }
+	    g.setTransform(transform); g.setClip(null); g.setComposite(AlphaComposite.Clear);
+	    if(wipe) g.fillRect(0, 0, w, h);
+	    else for(int i = 0; i < calls.size; i += 5) g.fillRect(calls.get(i), calls.get(i + 1), calls.get(i + 2), calls.get(i + 3));
+	    g.setPaintMode(); g.setFont(font); g.setColor(Color.BLACK);
+	    Ints t = last_calls; last_calls = calls; calls = t; calls.clear();
+	    return g;
+	}
+	// A draw call covered the given box of the screen, what tells what it drew there
+	private void call(int x, int y, int w, int h, int what) {
+	    calls.add(x - MARGIN); calls.add(y - MARGIN); calls.add(w + MARGIN * 2); calls.add(h + MARGIN * 2); calls.add(what);
+	}
+	// Work out what changed on screen, draw it again into the back buffer and move the animations on
+	private void sprites(ArrayList<JGameEngine.Sprite> queue, JGameEngine.Profiler profile) {
+	    double cx = lerp(camera.prev_x, camera.x), cy = lerp(camera.prev_y, camera.y);
+	    if(cx != camera_x || cy != camera_y || camera.d != camera_d) { camera_x = cx; camera_y = cy; camera_d = camera.d; all = true; }
+	    regions.clear();
+	    for(int i = 0; i < queue.size(); i++) {
+		JGameEngine.Sprite s = queue.get(i);
+		boolean edited = s.changed();
+		if(!s.screen(area)) continue;
+		boolean was = s.painted == frame - 1;
+		if(!was || edited || area.x != s.shown_x || area.y != s.shown_y || area.width != s.shown_w || area.height != s.shown_h 
+			|| s.image_index != s.shown_index || s.depth != s.shown_depth) {
+		    if(was) region(s.shown_x, s.shown_y, s.shown_w, s.shown_h);
+		    region(area.x, area.y, area.width, area.height);
+		}
+		s.painted = frame; s.shown_x = area.x; s.shown_y = area.y; s.shown_w = area.width; s.shown_h = area.height;
+		s.shown_index = s.image_index; s.shown_depth = s.depth;
+		showing.add(s);
+	    }
+	    // The ones that went off camera or were removed
+	    for(int i = 0; i < shown.size(); i++) {
+		JGameEngine.Sprite s = shown.get(i);
+		if(s.painted != frame) region(s.shown_x, s.shown_y, s.shown_w, s.shown_h);
+	    }
+	    ArrayList<JGameEngine.Sprite> t = shown; shown = showing; showing = t; showing.clear();
+	    for(int i = 0; i < Math.max(calls.size, last_calls.size); i += 5) {
+		boolean now = i < calls.size, before = i < last_calls.size;
+		if(now && before && calls.get(i) == last_calls.get(i) && calls.get(i + 1) == last_calls.get(i + 1) && calls.get(i + 2) == last_calls.get(i + 2) 
+			&& calls.get(i + 3) == last_calls.get(i + 3) && calls.get(i + 4) == last_calls.get(i + 4)) continue;
+		if(now) region(calls.get(i), calls.get(i + 1), calls.get(i + 2), calls.get(i + 3));
+		if(before) region(last_calls.get(i), last_calls.get(i + 1), last_calls.get(i + 2), last_calls.get(i + 3));
+	    }
+	    // The overlay of the profiler only changes with its summary (or when it's turned on or off)
+	    String[] lines = profile != null ? profile.lines() : null;
+	    if(lines != top_lines) {
+		region(top_area.x, top_area.y, top_area.width, top_area.height);
+		if(lines != null) profile.box(g, lines, top_area); else top_area.setBounds(0, 0, 0, 0);
+		region(top_area.x, top_area.y, top_area.width, top_area.height);
+		top_lines = lines;
+	    }
+	    top = profile;
+	    if(!all) merge();
+	    redrawn = all || regions.size > 0;
+	    if(redrawn) {
+		Graphics2D b = back.createGraphics();
+		if(all) paint(b, 0, 0, back.getWidth(), back.getHeight());
+		else for(int i = 0; i < regions.size; i += 4) paint(b, regions.get(i), regions.get(i + 1), regions.get(i + 2), regions.get(i + 3));
+		b.dispose();
+	    }
+	    for(int i = 0; i < shown.size(); i++) shown.get(i).animate();
+	}
+	// Add a part of the screen to draw again, cut to the screen
+	private void region(int x, int y, int w, int h) {
+	    if(all) return;
+	    int x1 = Math.min(back.getWidth(), x + w), y1 = Math.min(back.getHeight(), y + h);
+	    x = Math.max(0, x); y = Math.max(0, y);
+	    if(x1 <= x || y1 <= y) return;
+	    if(regions.size >= MOST * 4 * 4) { all = true; return; }
+	    regions.add(x); regions.add(y); regions.add(x1 - x); regions.add(y1 - y);
+	}
+	// Join the regions that overlap until none do. If they still cover half of the screen, drawing all of it is about as much work
+	private void merge() {
+	    int[] r = regions.data;
+	    for(boolean merged = true; merged; ) {
+		merged = false;
+		for(int i = 0; i < regions.size; i += 4) {
+		    for(int j = i + 4; j < regions.size; j += 4) {
+			if(r[j] > r[i] + r[i + 2] || r[i] > r[j] + r[j + 2] || r[j + 1] > r[i + 1] + r[i + 3] || r[i + 1] > r[j + 1] + r[j + 3]) continue;
+			int x0 = Math.min(r[i], r[j]), y0 = Math.min(r[i + 1], r[j + 1]);
+			int x1 = Math.max(r[i] + r[i + 2], r[j] + r[j + 2]), y1 = Math.max(r[i + 1] + r[i + 3], r[j + 1] + r[j + 3]);
+			r[i] = x0; r[i + 1] = y0; r[i + 2] = x1 - x0; r[i + 3] = y1 - y0;
+			regions.size -= 4;
+			System.arraycopy(r, regions.size, r, j, 4);
+			j -= 4; merged = true;
+		    }
+		}
+	    }
+	    long covered = 0;
+	    for(int i = 0; i < regions.size; i += 4) covered += (long) r[i + 2] * r[i + 3];
+	    if(regions.size > MOST * 4 || covered * 2 > (long) back.getWidth() * back.getHeight()) all = true;
+	}
+	// Draw a part of the screen again from scratch: the background, the draw calls, the sprites over them and then the overlay of 
+	// the profiler. The regions don't overlap, so the see-through overlay is drawn once on every pixel
+	private void paint(Graphics2D b, int x, int y, int w, int h) {
+	    b.setClip(x, y, w, h);
+	    b.setColor(window != null ? window.canvas.getBackground() : Color.WHITE);
+	    b.fillRect(x, y, w, h);
+	    b.drawImage(overlay, 0, 0, null);
+	    for(int i = 0; i < shown.size(); i++) {
+		JGameEngine.Sprite s = shown.get(i);
+		if(s.shown_x < x + w && s.shown_x + s.shown_w > x && s.shown_y < y + h && s.shown_y + s.shown_h > y) s.paint(b);
+	    }
+	    if(top_lines != null && top_area.intersects(x, y, w, h)) top.draw(b, top_lines);
 	}
     }
     //~~~~~~~~~~ Rendering
@@ -260,48 +747,379 @@ public class JGameEngine {
        /** The x position of the Game Object */	    public double x = 0;
        /** The y position of the Game Object */	    public double y = 0;
        /** The name of the Game Object */	    public String name = "Default";
+       double prev_x = 0, prev_y = 0; // position before the last update, for interpolation
+       int slot = -1, parallel_slot = -1, name_slot = -1; String indexed_name; // place in the Game Space, see Registry
+       JGameEngine.Pool<?> pool; boolean released; // the pool the object came from, and whether it was given back to it
+       ArrayList<JGameEngine.Sprite> added_sprites; // the sprites added for it, taken out with it (and put back with a pooled object)
+       ArrayList<JGameEngine.CollisionMask> pool_masks; // taken out and put back with a pooled object
+       ArrayList<JGameEngine.CollisionMask> masks; // its masks that are in the Game Space, so the ones of an object that ran can be placed again
        //private ArrayList<WrapCall> calls = new ArrayList<>();
 
        /** This function is called once when the object is added to the Game Space */
        public abstract void start();
        /** This function is called on every update cycle of the game. Also see deltaTime() */
        public abstract void update();
+       /** This function is called once on every drawn frame after update(). With a frameTickRate() update() may run zero or several times in a frame so drawing is better done here */
+       public void render() { }
+       /** This function is called instead of start() when the object is taken from a Pool again (see objectPool()), to set it up for another go. 
+	Its sprites and collision masks are already back in the Game Space */
+       public void reset() { }
        /*private void preUpdate() {
 	   // Current implementation never supported a preUpdate() so keeping this felt like a waste
 	   // If there are additional object properties to invoke, do that before update (colliders etc)
 	   for(WrapCall c : calls) {
-	   	c.call();
+		c.call();
 	   }
        }*/
     }
+    /** Game Objects that also implement Parallel have their update() called at the same time as other Parallel objects on all cores, before 
+     the update() of every other object. Their update() must only change the object itself and must not draw, add or remove anything (render() 
+     is still called on the game thread and can draw). It is meant for many independent objects, like AI that only reads the game */
+    public interface Parallel { }
+    // The Game Objects of a Game Space. Every object knows its slot in the array so adding and removing are O(1), a removed object's slot 
+    // is filled by the last object. The main registry also indexes objects by name, the same way. As name is a plain field, the index 
+    // is brought up to date by rename() after each update() of the object
+    private class Registry {
+	private JGameEngine.Object[] list = new JGameEngine.Object[64];
+	private int count;
+	private final boolean main; // main uses slot and keeps the name index, otherwise parallel_slot
+	private final HashMap<String, ArrayList<JGameEngine.Object>> names = new HashMap<>();
+	Registry(boolean main) { this.main = main; }
+	private void add(JGameEngine.Object o) {
+	    if(slot(o) != -1) return; // already in
+	    if(count == list.length) list = Arrays.copyOf(list, count * 2);
+	    slot(o, count); list[count++] = o;
+	    if(main) index(o);
+	}
+	private void remove(JGameEngine.Object o) {
+	    int i = slot(o);
+	    if(i == -1) return;
+	    if(main) unindex(o);
+	    JGameEngine.Object last = list[--count];
+	    list[i] = last; slot(last, i);
+	    list[count] = null; slot(o, -1);
+	}
+	private boolean contains(JGameEngine.Object o) { return slot(o) != -1; }
+	// Forget every object, so they can be added to a new Game Space
+	private void clear() {
+	    for(int i = 0; i < count; i++) { slot(list[i], -1); if(main) { list[i].indexed_name = null; list[i].name_slot = -1; } list[i] = null; }
+	    count = 0; names.clear();
+	}
+	private int slot(JGameEngine.Object o) { return main ? o.slot : o.parallel_slot; }
+	private void slot(JGameEngine.Object o, int i) { if(main) o.slot = i; else o.parallel_slot = i; }
+	// Move the object to its new name in the index if it was renamed
+	private void rename(JGameEngine.Object o) {
+	    if(o.name == o.indexed_name || o.slot == -1) return;
+	    if(o.name != null && o.name.equals(o.indexed_name)) { o.indexed_name = o.name; return; }
+	    unindex(o); index(o);
+	}
+	private ArrayList<JGameEngine.Object> named(String name) { return names.get(name); }
+	private void index(JGameEngine.Object o) {
+	    ArrayList<JGameEngine.Object> l = names.get(o.name);
+	    if(l == null) { l = new ArrayList<>(); names.put(o.name, l); }
+	    o.indexed_name = o.name; o.name_slot = l.size(); l.add(o);
+	}
+	private void unindex(JGameEngine.Object o) {
+	    ArrayList<JGameEngine.Object> l = names.get(o.indexed_name);
+	    JGameEngine.Object last = l.remove(l.size() - 1);
+	    if(last != o) { l.set(o.name_slot, last); last.name_slot = o.name_slot; }
+	    o.indexed_name = null; o.name_slot = -1;
+	}
+    }
+    /** Keeps the Game Objects of a kind that are spawned and removed often (bullets, particles, pickups) to be used again, instead of making new 
+     ones that the garbage collector has to clean up after. See objectPool() */
+    public class Pool<T extends JGameEngine.Object> {
+	private final Supplier<T> make;
+	private final ArrayList<T> free = new ArrayList<>();
+	private int made;
+	private Pool(Supplier<T> make) { this.make = make; }
+	/** Add an object to the Game Space, one given back earlier if there is one (reset() is called on it) or else a new one (start() is called on it). 
+	 Either way it's added in the next cycle, like objectAdd() */
+	public T acquire() {
+	    if(free.isEmpty()) { T o = make.get(); o.pool = this; made++; objectAdd(o); return o; }
+	    T o = free.remove(free.size() - 1);
+	    o.released = false;
+	    if(o.added_sprites != null) for(int i = 0; i < o.added_sprites.size(); i++) loop.sprite_queue.add(o.added_sprites.get(i));
+	    if(o.pool_masks != null) for(int i = 0; i < o.pool_masks.size(); i++) collisions.add(o.pool_masks.get(i));
+	    o.reset();
+	    loop.object_queue.add(o);
+	    return o;
+	}
+	/** Give an object of this pool back. It's taken out of the Game Space with its sprites and collision masks in the next cycle, and can be 
+	 acquired again after that. objectRemove() of a pooled object does the same */
+	public void release(JGameEngine.Object o) {
+	    if(o.pool != this || o.released) return;
+	    o.released = true;
+	    if(o.added_sprites != null) for(int i = 0; i < o.added_sprites.size(); i++) loop.sprite_queue_r.add(o.added_sprites.get(i));
+	    if(o.pool_masks != null) for(int i = 0; i < o.pool_masks.size(); i++) collisions.remove(o.pool_masks.get(i));
+	    loop.object_queue_r.add(o);
+	}
+	/** Get the number of objects that can be acquired without making a new one */
+	public int free() { return free.size(); }
+	/** Get the number of objects the pool has made */
+	public int made() { return made; }
+	@SuppressWarnings("unchecked")
+	private void recycle(JGameEngine.Object o) { free.add((T) o); }
+    }
+    /** Make a pool for a kind of Game Object, the function makes a new one when the pool has none to give. An object from a pool keeps the 
+     sprites and collision masks added for it (in start()) when it's released and gets them back when it's acquired again */
+    <T extends JGameEngine.Object> Pool<T> objectPool(Supplier<T> make) { return new Pool<>(make); }
     /** Place a game object in current space, start() is called immediately. Object is added in next cycle */
     void objectAdd(JGameEngine.Object obj) {	
+	long start = trace != null ? System.nanoTime() : 0;
 	obj.start(); // Initialize object
-	window.object_queue.add(obj);
+	if(start != 0) traced(obj.getClass(), start);
+	loop.object_queue.add(obj);
     }
-    /** Remove a game object from current space, Object is removed in next cycle */
+    /** Remove a game object from current space, Object is removed in next cycle. The sprites and collision masks added for it are removed with it 
+     (this changed: they used to stay in the Game Space, drawn where the object was last and colliding for it, until removed themselves). 
+     Adding the object again doesn't bring them back, its start() adds them again. An object from a pool is given back to it instead, and keeps them */
     void objectRemove(JGameEngine.Object obj) {
-	window.object_queue_r.add(obj);
+	if(obj.pool != null) { obj.pool.release(obj); return; }
+	loop.object_queue_r.add(obj);
+	if(obj.added_sprites != null) { for(int i = 0; i < obj.added_sprites.size(); i++) loop.sprite_queue_r.add(obj.added_sprites.get(i)); obj.added_sprites.clear(); }
+	collisionMaskRemove(obj);
     }
     /** Find a game object from the current space by reference */
     List<JGameEngine.Object> objectList(JGameEngine.Object obj) {
 	List<JGameEngine.Object> l = new ArrayList<>();
-	for(int i = 0; i < window.objects.size(); i++)
-	    if(window.objects.get(i) == obj)
-		l.add(window.objects.get(i));
+	if(loop.objects.contains(obj)) l.add(obj);
 	return l;
     }
-    /** Find a game object from the current space by name */
+    /** Check if a game object is in the current space */
+    boolean objectExists(JGameEngine.Object obj) {
+	return loop.objects.contains(obj);
+    }
+    /** Find a game object from the current space by name. A changed name is found after the object's next update() */
     List<JGameEngine.Object> objectsFind(String name) {
 	List<JGameEngine.Object> l = new ArrayList<>();
-	for(int i = 0; i < window.objects.size(); i++)
-	    if(window.objects.get(i).name.equals(name))
-		l.add(window.objects.get(i));
+	objectsFind(name, l);
 	return l;
     }
+    /** Find a game object from the current space by name and put them in the given list (which is cleared first) instead of a new one, 
+     returns how many were found. Reusing the same list every frame avoids allocating */
+    int objectsFind(String name, List<JGameEngine.Object> into) {
+	into.clear();
+	ArrayList<JGameEngine.Object> l = loop.objects.named(name);
+	if(l != null) for(int i = 0; i < l.size(); i++) into.add(l.get(i)); // addAll would copy the list to an array
+	return into.size();
+    }
+    /** The number of game objects in the current space, with objectGet() it allows going through all objects without allocating */
+    int objectCount() {
+	return loop.objects.count;
+    }
+    /** Get the game object at the given index (0 to objectCount() - 1). The order changes when objects are removed */
+    JGameEngine.Object objectGet(int index) {
+	if(index < 0 || index >= loop.objects.count) throw new IndexOutOfBoundsException("Object " + index + " of " + loop.objects.count);
+	return loop.objects.list[index];
+    }
     //~~~~~~~~~~ Game Object Managment Ends
 
     //~~~~~~~~~~ Sprite Managment
+    // Images of the sprites, read and sliced once and shared by every Sprite made from the same file. Each Frames knows how many 
+    // Sprites use it, the ones that are no longer used are kept in case they are needed again until the budget is used up, the least 
+    // recently used go first. Sounds and fonts that were preloaded are kept here as well
+    private class Assets {
+	private LinkedHashMap<String, Frames> cache = new LinkedHashMap<>(16, 0.75f, true);
+	private HashMap<String, CompletableFuture<Frames>> loading = new HashMap<>(); // images being read right now
+	private HashMap<String, Sound> sounds = new HashMap<>();
+	private HashMap<String, Font> fonts = new HashMap<>();
+	private long budget = 64L * 1024 * 1024, bytes;
+	private int preloads, preloaded;
+	private Frames acquire(String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) {
+	    Frames f = frames(image, subimages_x, subimages_width, subimages_y, subimages_height, false).join();
+	    if(f == null) return null;
+	    synchronized(this) {
+		// It may have been dropped already if it was preloaded and the budget is small
+		Frames cached = cache.get(f.key);
+		if(cached == null) { cache.put(f.key, f); bytes += f.bytes; }
+		else f = cached;
+		f.refs++;
+		evict();
+	    }
+	    return f;
+	}
+	// Get the images from the cache, wait for them if they are being read already, or read them on this thread (or a loader thread if async)
+	private CompletableFuture<Frames> frames(String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height, boolean async) {
+	    String key = image + "~" + subimages_x + "~" + subimages_width + "~" + subimages_y + "~" + subimages_height;
+	    CompletableFuture<Frames> future;
+	    synchronized(this) {
+		Frames f = cache.get(key);
+		if(f != null) return CompletableFuture.completedFuture(f);
+		future = loading.get(key);
+		if(future != null) return future;
+		future = new CompletableFuture<>();
+		loading.put(key, future);
+	    }
+	    final CompletableFuture<Frames> done = future;
+	    Runnable read = () -> {
+		Frames f = null;
+		try { f = load(key, image, subimages_x, subimages_width, subimages_y, subimages_height); }
+		catch(RuntimeException e) { System.out.println("JGameEngine::Sprite() Unable to cut image (" + image + ") details: " + e.toString()); }
+		finally { loaded(key, f); done.complete(f); }
+	    };
+	    if(async) loaders().execute(read); 
+	    else { long start = System.nanoTime(); read.run(); traced("read " + image, start); }
+	    return future;
+	}
+	private synchronized void loaded(String key, Frames f) {
+	    loading.remove(key);
+	    if(f != null) { cache.put(key, f); bytes += f.bytes; evict(); }
+	}
+	private synchronized Sound sound(String path) { return sounds.get(path); }
+	private synchronized Font font(String path) { return fonts.get(path); }
+	// Keep count of the preloads for the progress
+	private <T> CompletableFuture<T> preload(CompletableFuture<T> future) {
+	    synchronized(this) { preloads++; }
+	    future.whenComplete((result, e) -> { synchronized(this) { preloaded++; } });
+	    return future;
+	}
+	private synchronized void release(Frames f) {
+	    if(f.refs > 0) f.refs--;
+	    evict();
+	}
+	// Use the images of f again. If they were dropped meanwhile they are put back, unless they were read again since (then those are used)
+	private synchronized Frames retain(Frames f) {
+	    Frames cached = cache.get(f.key);
+	    if(cached == null) { cache.put(f.key, f); bytes += f.bytes; cached = f; }
+	    cached.refs++;
+	    evict();
+	    return cached;
+	}
+	// Drop unused images, least recently used first, until the budget is met. Images in use are never dropped
+	private void evict() {
+	    Iterator<Frames> i = cache.values().iterator();
+	    while(bytes > budget && i.hasNext()) {
+		Frames f = i.next();
+		if(f.refs == 0) { i.remove(); bytes -= f.bytes; }
+	    }
+	}
+	private Frames load(String key, String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) {
+	    BufferedImage tmp = null;
+	    try { tmp = ImageIO.read(new File(image)); } catch (IOException ex) { }
+	    if(tmp == null) { System.out.println("JGameEngine::Sprite() Unable to open image (" + image + ")"); return null; }
+	    BufferedImage[] img;
+	    if(subimages_x > 0 && subimages_y > 0) {
+		img =  new BufferedImage[subimages_x * subimages_y];
+		for(int i = 0; i < subimages_x; i++) {
+		    for(int j = 0; j < subimages_y; j++) {
+			img[i * subimages_y + j] = tmp.getSubimage(j * subimages_width, i * subimages_height, subimages_width, subimages_height);
+		    }
+		}
+	    } else {
+		img = new BufferedImage[1];
+		img[0] = tmp;
+	    }
+	    long bytes = 0;
+	    for(int i = 0; i < img.length; i++) { img[i] = compatible(img[i]); bytes += 4L * img[i].getWidth() * img[i].getHeight(); }
+	    return new Frames(key, img, bytes);
+	}
+	// Copy a frame into an image of its own in the format of the screen, so drawing it is a plain copy instead of a conversion of 
+	// every pixel (ImageIO often gives 3 byte or indexed images, and sub images would keep the whole sheet around). Frames without 
+	// see-through pixels are made opaque, which is faster to draw. Without a screen the frames are premultiplied ARGB
+	private BufferedImage compatible(BufferedImage src) {
+	    BufferedImage dst = screenImage(src.getWidth(), src.getHeight(), transparency(src));
+	    Graphics2D g = dst.createGraphics();
+	    g.setComposite(AlphaComposite.Src);
+	    g.drawImage(src, 0, 0, null);
+	    g.dispose();
+	    return dst;
+	}
+	// Look at the alpha of every pixel: OPAQUE if none are see-through, BITMASK if they are either fully see-through or not at all
+	private int transparency(BufferedImage img) {
+	    if(img.getColorModel().getTransparency() == Transparency.OPAQUE) return Transparency.OPAQUE;
+	    int w = img.getWidth(), h = img.getHeight(), result = Transparency.OPAQUE;
+	    int[] row = new int[w];
+	    for(int y = 0; y < h; y++) {
+		img.getRGB(0, y, w, 1, row, 0, w);
+		for(int x = 0; x < w; x++) {
+		    int a = row[x] >>> 24;
+		    if(a == 0) result = Transparency.BITMASK;
+		    else if(a != 255) return Transparency.TRANSLUCENT;
+		}
+	    }
+	    return result;
+	}
+    }
+    // The images of a sprite, never changed once loaded so any number of Sprites can draw them
+    private static class Frames {
+	private final String key;
+	private final BufferedImage[] img;
+	private final long bytes;
+	private int refs;
+	private Scaled[] scaled; // the frames at the sizes they are drawn at, see Scaler
+	private Scaling scaling; // how the Scaler keeps track of them while there are any
+	Frames(String key, BufferedImage[] img, long bytes) { this.key = key; this.img = img; this.bytes = bytes; }
+    }
+    // Frames drawn at one size, each one is scaled the first time it is needed
+    private static class Scaled {
+	private final int w, h;
+	private final BufferedImage[] img;
+	Scaled(int w, int h, int frames) { this.w = w; this.h = h; img = new BufferedImage[frames]; }
+    }
+    // The Scaler only keeps the Frames it scaled weakly, so Frames the Assets dropped that no sprite uses anymore are let go with 
+    // their scaled images. Their bytes are given back to the budget once they're gone
+    private static class Scaling extends WeakReference<Frames> {
+	private long bytes;
+	Scaling(Frames f, ReferenceQueue<Frames> gone) { super(f, gone); }
+    }
+    // Sprite frames drawn at the size they are shown at with the current camera distance, so zoomed sprites are copied instead of 
+    // scaled every frame. The size in pixels is the key so a zoom that rounds to the same size shares them. Everything is dropped 
+    // when the camera distance changes, and is only used again once the distance stayed the same for a whole frame so zooming 
+    // smoothly doesn't fill it with sizes that are needed once. When the budget is used up the rest is drawn scaled like before
+    private class Scaler {
+	private ArrayList<Scaling> frames = new ArrayList<>(); // the frames that have scaled images
+	private final ReferenceQueue<Frames> gone = new ReferenceQueue<>();
+	private long bytes, budget = 32L * 1024 * 1024;
+	private boolean settled = true;
+	// Get a frame at the given size, null if it has to be drawn scaled
+	private BufferedImage get(Frames f, int index, int w, int h) {
+	    if(!settled || budget == 0) return null;
+	    if(f.scaled == null) { f.scaled = new Scaled[4]; f.scaling = new Scaling(f, gone); frames.add(f.scaling); }
+	    Scaled s = null;
+	    for(int k = 0; k < f.scaled.length && s == null; k++) {
+		if(f.scaled[k] == null) f.scaled[k] = s = new Scaled(w, h, f.img.length);
+		else if(f.scaled[k].w == w && f.scaled[k].h == h) s = f.scaled[k];
+	    }
+	    if(s == null) return null; // drawn at too many sizes
+	    if(s.img[index] == null) {
+		Scaling g;
+		while((g = (Scaling) gone.poll()) != null) { bytes -= g.bytes; frames.remove(g); }
+		if(bytes + 4L * w * h > budget) return null;
+		s.img[index] = scale(f.img[index], w, h); bytes += 4L * w * h; f.scaling.bytes += 4L * w * h;
+	    }
+	    return s.img[index];
+	}
+	private BufferedImage scale(BufferedImage src, int w, int h) {
+	    BufferedImage dst = new BufferedImage(src.getColorModel(), src.getColorModel().createCompatibleWritableRaster(w, h), src.isAlphaPremultiplied(), null);
+	    Graphics2D g = dst.createGraphics();
+	    g.setComposite(AlphaComposite.Src);
+	    g.drawImage(src, 0, 0, w, h, null);
+	    g.dispose();
+	    return dst;
+	}
+	private void clear() {
+	    for(int i = 0; i < frames.size(); i++) {
+		Scaling g = frames.get(i); Frames f = g.get();
+		if(f != null) { f.scaled = null; f.scaling = null; }
+		g.bytes = 0; g.clear(); // one that is already on its way to gone doesn't count anymore
+	    }
+	    frames.clear(); bytes = 0; settled = false;
+	}
+    }
+    // A sound decoded into memory as 16 bit stereo at the mixer's rate, shared by every voice that plays it
+    private static class Sound {
+	private final short[] pcm;
+	private final int frames;
+	Sound(short[] pcm, int frames) { this.pcm = pcm; this.frames = frames; }
+	static Sound read(String path) throws Exception {
+	    try(Decoder in = new Decoder(path)) {
+		short[] pcm = new short[Mixer.RATE * 2]; int frames = 0, n;
+		while((n = in.read(pcm, frames, pcm.length / 2 - frames)) > 0) if((frames += n) * 2 == pcm.length) pcm = Arrays.copyOf(pcm, pcm.length * 2);
+		return new Sound(Arrays.copyOf(pcm, frames * 2), frames);
+	    }
+	}
+    }
     /** The Sprite class contains information about a sprite. A sprite is an image or a collection of images (for animation) */
     public class Sprite {
        /** The x-position in the game space */		double x = 0; 
@@ -310,64 +1128,301 @@ public class JGameEngine {
        /** The height of the sprite	    */		double height = 0;
        /** The speed at which the animation cycles */	double image_speed = 0;
        /** The frame of the sprite animation */		int image_index = 0;
+       /** Sprites are drawn from the lowest depth to the highest (those are on top), sprites of the same depth in the order they were added */  int depth = 0;
+       /** A sprite that will never move can be made fixed before it's added. It is then only looked at when it is on camera, see spriteAdd() */  boolean fixed = false;
+       /** A sprite that will never move or animate (scenery) can be made part of the background before it's added. All of the background is drawn 
+	under the other sprites, in order of depth, into images that are kept, so it costs about one image per 512x512 pixels on camera */  boolean background = false;
        private JGameEngine.Object obj = null;
+       private Frames frames;
+       private boolean held; // counted as a user of frames: from when it's made, while it is in the Game Space and until it's disposed
        private BufferedImage[] img;
        private int subimages_x = 0, subimages_width = 0;
        private int subimages_y = 0, subimages_height = 0;
        private double current_count_speed;
+       private int sequence, stamp; // the order it was added in, the last frame it was looked at
+       private boolean added, queued, binned, layered; // in the Game Space, in the queue of sprites to draw, in the grid (it's fixed), in the background
+       private int column, row, columns, rows; // cells of the grid it's kept in
+       private int slot; private int[] cell_slot; // where it is in the list of moving sprites, or in each of its cells (row by row)
+       private int painted, shown_x, shown_y, shown_w, shown_h, shown_index, shown_depth; // the last dirty rectangle frame it was on screen in, and how
        
        public Sprite(String image) {
-	    try { 
-		img = new BufferedImage[1];
-		img[0] = ImageIO.read(new File(image));      
+	    frames = assets.acquire(image, 0, 0, 0, 0);
+	    if(frames != null) { 
+		img = frames.img; held = true;
 	        width = img[0].getWidth(); height = img[0].getHeight();
 		x = 0; y = 0;
-	    } catch (IOException ex) { System.out.println("JGameEngine::Sprite() Unable to open image (" + image + ")"); }
+	    }
 	}
 	public Sprite(Object ob, String image) { this(image); obj = ob; x = 0; y = 0; }
 	public Sprite(String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) {
 	    this.subimages_x = subimages_x; this.subimages_y = subimages_y;
 	    this.subimages_width = subimages_width; this.subimages_height = subimages_height;
-	    BufferedImage tmp = null;
-	    try { tmp = ImageIO.read(new File(image)); } catch (IOException ex) { System.out.println("JGameEngine::Sprite() Unable to open image  (" + image + ")"); }
-	    if(subimages_x > 0 && subimages_y > 0) {
-		img =  new BufferedImage[subimages_x * subimages_y];
-		for(int i = 0; i < subimages_x; i++) {
-		    for(int j = 0; j < subimages_y; j++) {
-			img[i * subimages_y + j] = tmp.getSubimage(j * subimages_width, i * subimages_height, subimages_width, subimages_height);
-		    }
-		}
-	    } else {
-		img = new BufferedImage[1];
-		img[0] = tmp;
-	    }
+	    frames = assets.acquire(image, subimages_x, subimages_width, subimages_y, subimages_height);
+	    if(frames == null) return;
+	    img = frames.img; held = true;
 	    width = img[0].getWidth(); height = img[0].getHeight();
 	}
 	public Sprite(Object ob, String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) { this(image, subimages_x, subimages_width, subimages_y, subimages_height); obj = ob; x = 0; y = 0; }
-	private void draw(Sprite sprite, Graphics g) {
+	private Sprite() { }
+	private void draw(Sprite sprite, Graphics g) { if(sprite.paint(g)) sprite.animate(); }
+	// Draw the current frame, returns false if the sprite isn't on camera
+	boolean paint(Graphics g) {
+	    if(!screen(sprite_area)) return false;
+	    blit(g, sprite_area.x, sprite_area.y, sprite_area.width, sprite_area.height);
+	    return true;
+	}
+	// Where the sprite is drawn on the screen this frame, returns false if it isn't on camera
+	boolean screen(Rectangle r) {
+	    if(img == null) return false; // not loaded or disposed
 	    double draw_x = x, draw_y = y, check_x = x, check_y = y;
 	    if(obj != null) {
-		draw_x += obj.x; draw_y += obj.y;
+		draw_x += lerp(obj.prev_x, obj.x); draw_y += lerp(obj.prev_y, obj.y);
 		check_x += obj.x; check_y += obj.y;
 	    }
-	    draw_x = cameraCoordX(draw_x); draw_y = cameraCoordY(draw_y); 
-	    double w = width; double h = height;
-	    if(sprite.subimages_x == 0 || sprite.subimages_y == 0) {
-		sprite.image_index = 0;
-		if(!cameraBounded(check_x, check_y, w, h)) return;
-		g.drawImage(sprite.img[sprite.image_index], (int) Math.round(draw_x * camera.d), (int) Math.round(draw_y * camera.d), (int) Math.round(w * camera.d), (int) Math.round(h * camera.d), null);
-		return;
-	    }
-	    if(!cameraBounded(check_x, check_y, w, h)) return;
-	    g.drawImage(sprite.img[sprite.image_index], (int) Math.round(draw_x * camera.d), (int) Math.round(draw_y * camera.d), (int) Math.round(w * camera.d), (int) Math.round(h * camera.d), null);
-
+	    draw_x -= lerp(camera.prev_x, camera.x); draw_y -= lerp(camera.prev_y, camera.y); 
+	    if(subimages_x == 0 || subimages_y == 0) image_index = 0;
+	    if(!cameraBounded(check_x, check_y, width, height)) return false;
+	    r.setBounds((int) Math.round(draw_x * camera.d), (int) Math.round(draw_y * camera.d), (int) Math.round(width * camera.d), (int) Math.round(height * camera.d));
+	    return true;
+	}
+	// True if what the sprite looks like changed since this was last asked, other than its frame
+	boolean changed() { return false; }
+	// Move the animation on by the length of the frame
+	void animate() {
+	    if(subimages_x == 0 || subimages_y == 0) return;
 	    // Runs after about 1ms under frameDelay of 128. Can't keep up well afterwards. 
-	    current_count_speed += image_speed * deltaTime;
+	    current_count_speed += image_speed * frameTime;
 	    if(current_count_speed >= 1) {
-		sprite.image_index = (sprite.image_index + 1) % (sprite.subimages_x * sprite.subimages_y);
+		image_index = (image_index + 1) % (subimages_x * subimages_y);
 		current_count_speed -= 1;
 	    }
 	}
+	// Draw the current frame at the camera's scale, scaled ahead of time when possible
+	private void blit(Graphics g, int dx, int dy, int dw, int dh) {
+	    BufferedImage frame = img[image_index];
+	    if(dw == frame.getWidth() && dh == frame.getHeight()) { g.drawImage(frame, dx, dy, null); return; }
+	    BufferedImage scaled = dw > 0 && dh > 0 ? scaler.get(frames, image_index, dw, dh) : null;
+	    if(scaled != null) g.drawImage(scaled, dx, dy, null);
+	    else g.drawImage(frame, dx, dy, dw, dh, null);
+	}
+    }
+    // The sprites of the Game Space. Fixed sprites are kept in a grid over the Game Space so only the cells on camera are looked at, 
+    // the others can move and are looked at every frame. The sprites that may be on camera are drawn by depth from a queue that is 
+    // kept from frame to frame: the ones that came into view are added to its end, so it's almost sorted already and an insertion 
+    // sort puts it in order in about one pass. The cells at the edges stretch out forever, like the Quadtree
+    private class Sprites {
+	private static final int CELL = 256;
+	private ArrayList<Sprite> moving = new ArrayList<>(), queue = new ArrayList<>(), entered = new ArrayList<>();
+	private ArrayList<Sprite>[] cells;
+	private Background background;
+	private int columns, rows, stamp, sequence;
+	Sprites() { clear(0, 0); }
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void clear(int width, int height) {
+	    // Every sprite of the old Game Space is out of it, so it can be added to the new one
+	    for(int i = 0; i < moving.size(); i++) out(moving.get(i));
+	    if(cells != null) for(int i = 0; i < cells.length; i++) if(cells[i] != null) for(int j = 0; j < cells[i].size(); j++) out(cells[i].get(j));
+	    if(background != null) for(int i = 0; i < background.list.size(); i++) out(background.list.get(i));
+	    moving.clear(); queue.clear();
+	    columns = Math.max(1, Math.min(1024, (width + CELL - 1) / CELL)); rows = Math.max(1, Math.min(1024, (height + CELL - 1) / CELL));
+	    cells = new ArrayList[columns * rows];
+	    background = new Background(width, height);
+	    background.depth = Integer.MIN_VALUE;
+	    add(background);
+	}
+	private void out(Sprite s) { s.added = s.queued = s.binned = s.layered = false; release(s); }
+	// A sprite uses its images while it is in the Game Space, once it's taken out they can be dropped (see Assets)
+	private void hold(Sprite s) {
+	    if(s.held || s.frames == null) return;
+	    Frames f = assets.retain(s.frames);
+	    if(f != s.frames && s.img != null) s.img = f.img;
+	    s.frames = f; s.held = true;
+	}
+	private void release(Sprite s) { if(s.held) { assets.release(s.frames); s.held = false; } }
+	private int column(double x) { return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / CELL))); }
+	private int row(double y) { return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / CELL))); }
+	private void add(Sprite s) {
+	    if(s.added) return;
+	    s.added = true; s.sequence = sequence++;
+	    hold(s);
+	    s.layered = s.background && s.obj == null && s != background;
+	    if(s.layered) { background.add(s); return; }
+	    s.binned = s.fixed && s.obj == null;
+	    if(!s.binned) { s.slot = moving.size(); moving.add(s); return; }
+	    s.column = column(s.x); s.row = row(s.y);
+	    s.columns = column(s.x + s.width) - s.column + 1; s.rows = row(s.y + s.height) - s.row + 1;
+	    if(s.cell_slot == null || s.cell_slot.length < s.columns * s.rows) s.cell_slot = new int[s.columns * s.rows];
+	    for(int c = s.column; c < s.column + s.columns; c++) {
+		for(int r = s.row; r < s.row + s.rows; r++) {
+		    if(cells[r * columns + c] == null) cells[r * columns + c] = new ArrayList<>();
+		    s.cell_slot[(r - s.row) * s.columns + c - s.column] = cells[r * columns + c].size();
+		    cells[r * columns + c].add(s);
+		}
+	    }
+	}
+	// The last sprite of a list is swapped into the place of the removed one. A sprite in the queue is only marked out of it, 
+	// it's left out of the queue the next time the sprites on camera are worked out
+	private void remove(Sprite s) {
+	    if(!s.added) return;
+	    s.added = false;
+	    release(s);
+	    if(s.layered) { background.remove(s); return; }
+	    s.queued = false;
+	    if(!s.binned) {
+		Sprite last = moving.remove(moving.size() - 1);
+		if(last != s) { moving.set(s.slot, last); last.slot = s.slot; }
+		return;
+	    }
+	    for(int c = s.column; c < s.column + s.columns; c++) {
+		for(int r = s.row; r < s.row + s.rows; r++) {
+		    ArrayList<Sprite> cell = cells[r * columns + c];
+		    Sprite last = cell.remove(cell.size() - 1);
+		    if(last == s) continue;
+		    int i = s.cell_slot[(r - s.row) * s.columns + c - s.column];
+		    cell.set(i, last); last.cell_slot[(r - last.row) * last.columns + c - last.column] = i;
+		}
+	    }
+	}
+	// The sprites that may be on camera this frame, in the order they're drawn in
+	private ArrayList<Sprite> visible() {
+	    stamp++; entered.clear();
+	    double left = Math.min(camera.prev_x, camera.x), top = Math.min(camera.prev_y, camera.y);
+	    double right = Math.max(camera.prev_x, camera.x) + cameraWidth(), bottom = Math.max(camera.prev_y, camera.y) + cameraHeight();
+	    for(int c = column(left); c <= column(right); c++) {
+		for(int r = row(top); r <= row(bottom); r++) {
+		    ArrayList<Sprite> cell = cells[r * columns + c];
+		    if(cell != null) for(int i = 0; i < cell.size(); i++) look(cell.get(i));
+		}
+	    }
+	    for(int i = 0; i < moving.size(); i++) look(moving.get(i));
+	    // Keep the ones still in view (and not taken out since) in their order, then add the ones that came into view
+	    int n = 0;
+	    for(int i = 0; i < queue.size(); i++) {
+		Sprite s = queue.get(i);
+		if(s.stamp == stamp && s.queued) queue.set(n++, s);
+		else s.queued = false;
+	    }
+	    while(queue.size() > n) queue.remove(queue.size() - 1);
+	    for(int i = 0; i < entered.size(); i++) { entered.get(i).queued = true; queue.add(entered.get(i)); }
+	    for(int i = 1; i < queue.size(); i++) {
+		Sprite s = queue.get(i);
+		int j = i - 1;
+		while(j >= 0 && after(queue.get(j), s)) { queue.set(j + 1, queue.get(j)); j--; }
+		queue.set(j + 1, s);
+	    }
+	    return queue;
+	}
+	private void look(Sprite s) {
+	    if(s.stamp == stamp) return; // already seen in another cell
+	    s.stamp = stamp;
+	    if(!s.queued) entered.add(s);
+	}
+	private boolean after(Sprite a, Sprite b) { return a.depth > b.depth || (a.depth == b.depth && a.sequence > b.sequence); }
+    }
+    // The background sprites of the Game Space, drawn together into chunks of 512x512 screen pixels at the camera's distance. The chunks 
+    // are kept as images so the whole background costs one image per chunk on camera. A chunk is only drawn again after a sprite in it was 
+    // added or removed, and all of them once the camera distance changes. The chunks off camera are let go once there are too many. 
+    // It is a sprite of the lowest depth itself, so it is drawn (and culled, and tracked by dirty regions) like the others
+    private class Background extends Sprite {
+	private static final int CHUNK = 512;
+	private static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB); // a chunk with no sprites in it
+	private final ArrayList<Sprite> list = new ArrayList<>(); // in the order they're drawn in
+	private BufferedImage[] chunk = new BufferedImage[0];
+	private final ArrayList<BufferedImage> spare = new ArrayList<>(); // images of chunks that were let go, to draw other chunks into
+	private int[] drawn = new int[0]; // the last frame each chunk was drawn in
+	private int chunks_x, chunks_y, first_x, first_y, baked, frame; // first_x, first_y: the chunk the grid starts at, left of and above the Game Space if sprites are
+	private double left, top, right, bottom; // the Game Space, grown to take in the sprites that are out of it
+	private double d; // camera distance the chunks were drawn at
+	private boolean edited;
+	Background(int space_width, int space_height) { width = right = space_width; height = bottom = space_height; }
+	private void add(Sprite s) {
+	    int i = list.size();
+	    while(i > 0 && loop.sprites.after(list.get(i - 1), s)) i--;
+	    list.add(i, s);
+	    // A sprite (partly) out of the chunks makes them cover it, they're all laid out again when they're drawn next
+	    if(s.x < left || s.y < top || s.x + s.width > right || s.y + s.height > bottom) {
+		left = Math.min(left, s.x); top = Math.min(top, s.y); right = Math.max(right, s.x + s.width); bottom = Math.max(bottom, s.y + s.height);
+		d = 0; edited = true;
+		return;
+	    }
+	    forget(s);
+	}
+	private void remove(Sprite s) { list.remove(s); forget(s); }
+	// Let go of the chunks the sprite is in, they're drawn again when they're on camera
+	private void forget(Sprite s) {
+	    edited = true;
+	    if(d != camera.d) return; // all of them are drawn again anyway
+	    int c0 = Math.max(0, (int) Math.floor(s.x * d / CHUNK) - first_x), c1 = Math.min(chunks_x - 1, (int) Math.floor((s.x + s.width) * d / CHUNK) - first_x);
+	    int r0 = Math.max(0, (int) Math.floor(s.y * d / CHUNK) - first_y), r1 = Math.min(chunks_y - 1, (int) Math.floor((s.y + s.height) * d / CHUNK) - first_y);
+	    for(int r = r0; r <= r1; r++) for(int c = c0; c <= c1; c++) drop(r * chunks_x + c);
+	}
+	private void drop(int i) { 
+	    if(chunk[i] != null && chunk[i] != EMPTY) {
+		baked--;
+		if(spare.size() < 8 && chunk[i].getWidth() == CHUNK && chunk[i].getHeight() == CHUNK) spare.add(chunk[i]);
+	    }
+	    chunk[i] = null; 
+	}
+	// Start over at a new camera distance
+	private void reset() {
+	    d = camera.d;
+	    first_x = (int) Math.floor(left * d / CHUNK); first_y = (int) Math.floor(top * d / CHUNK);
+	    chunks_x = Math.max(1, (int) Math.ceil(right * d / CHUNK) - first_x); chunks_y = Math.max(1, (int) Math.ceil(bottom * d / CHUNK) - first_y);
+	    chunk = new BufferedImage[chunks_x * chunks_y]; drawn = new int[chunk.length];
+	    baked = 0; edited = true; spare.clear();
+	}
+	@Override boolean screen(Rectangle r) {
+	    if(list.isEmpty()) return false;
+	    int ox = (int) Math.round(lerp(camera.prev_x, camera.x) * camera.d), oy = (int) Math.round(lerp(camera.prev_y, camera.y) * camera.d);
+	    int x0 = (int) Math.floor(left * camera.d), y0 = (int) Math.floor(top * camera.d);
+	    r.setBounds(x0 - ox, y0 - oy, (int) Math.ceil(right * camera.d) - x0, (int) Math.ceil(bottom * camera.d) - y0);
+	    return true;
+	}
+	@Override boolean changed() { boolean c = edited; edited = false; return c; }
+	@Override boolean paint(Graphics g) {
+	    if(list.isEmpty()) return false;
+	    if(d != camera.d) reset();
+	    int ox = (int) Math.round(lerp(camera.prev_x, camera.x) * d), oy = (int) Math.round(lerp(camera.prev_y, camera.y) * d);
+	    int c0 = Math.max(0, Math.floorDiv(ox, CHUNK) - first_x), c1 = Math.min(chunks_x - 1, Math.floorDiv(ox + windowWidth(), CHUNK) - first_x);
+	    int r0 = Math.max(0, Math.floorDiv(oy, CHUNK) - first_y), r1 = Math.min(chunks_y - 1, Math.floorDiv(oy + windowHeight(), CHUNK) - first_y);
+	    frame++;
+	    for(int r = r0; r <= r1; r++) {
+		for(int c = c0; c <= c1; c++) {
+		    int i = r * chunks_x + c;
+		    if(chunk[i] == null) bake(c, r);
+		    drawn[i] = frame;
+		    if(chunk[i] != EMPTY) g.drawImage(chunk[i], (first_x + c) * CHUNK - ox, (first_y + r) * CHUNK - oy, null);
+		}
+	    }
+	    if(baked > Math.max(16, (r1 - r0 + 1) * (c1 - c0 + 1) * 2)) {
+		for(int i = 0; i < chunk.length; i++) if(drawn[i] != frame) drop(i);
+	    }
+	    return true;
+	}
+	// Draw the sprites that are in a chunk into its image, the same way they would be drawn on their own. They're scaled straight 
+	// into it like sprites the Scaler has no copy of: the chunk is what is kept, so the Scaler is left to the other sprites
+	private void bake(int c, int r) {
+	    int i = r * chunks_x + c;
+	    int x = (first_x + c) * CHUNK, y = (first_y + r) * CHUNK, w = Math.min(CHUNK, (int) Math.ceil(right * d) - x), h = Math.min(CHUNK, (int) Math.ceil(bottom * d) - y);
+	    Graphics2D g = null;
+	    for(int j = 0; j < list.size(); j++) {
+		Sprite s = list.get(j);
+		if(s.img == null) continue;
+		int dx = (int) Math.round(s.x * d), dy = (int) Math.round(s.y * d), dw = (int) Math.round(s.width * d), dh = (int) Math.round(s.height * d);
+		if(dx >= x + w || dy >= y + h || dx + dw <= x || dy + dh <= y) continue;
+		if(g == null) {
+		    if(w == CHUNK && h == CHUNK && !spare.isEmpty()) {
+			chunk[i] = spare.remove(spare.size() - 1); g = chunk[i].createGraphics();
+			g.setComposite(AlphaComposite.Clear); g.fillRect(0, 0, w, h); g.setPaintMode();
+		    } else { chunk[i] = screenImage(Math.max(1, w), Math.max(1, h), Transparency.TRANSLUCENT); g = chunk[i].createGraphics(); }
+		}
+		if(s.subimages_x == 0 || s.subimages_y == 0) s.image_index = 0;
+		g.drawImage(s.img[s.image_index], dx - x, dy - y, dw, dh, null);
+	    }
+	    if(g == null) { chunk[i] = EMPTY; return; }
+	    g.dispose();
+	    baked++;
+	}
     }
     /** Create a Sprite from the path to an image.
      * @param path A String containing the path to the image
@@ -395,46 +1450,305 @@ public class JGameEngine {
      * @param subimages_height The width of each image in the y-axis 
      * @return A Sprite */
     public Sprite sprite(Object obj, String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) { return new Sprite(obj, image, subimages_x, subimages_width, subimages_y, subimages_height); }
+    private final Rectangle sprite_area = new Rectangle(); // where Sprite.paint() draws, only used while drawing
     /** Draw a sprite */
-    public void spriteDraw(Sprite sprite) { sprite.draw(sprite, window.g); }
-    /** Add a sprite to the game space. This may be done once in start() of your game object. Once a sprite is added it will keep being drawn until its removed */
-    void spriteAdd(JGameEngine.Sprite spr) { window.sprite_queue.add(spr);  }
+    public void spriteDraw(Sprite sprite) { 
+	JGameEngine.Dirty d = dirty;
+	if(d != null && sprite.screen(sprite_area)) drawn(sprite_area.x, sprite_area.y, sprite_area.width, sprite_area.height, System.identityHashCode(sprite) * 31 + sprite.image_index + (sprite.changed() ? d.frame : 0));
+	sprite.draw(sprite, loop.g); 
+    }
+    /** Add a sprite to the game space. This may be done once in start() of your game object. Once a sprite is added it will keep being drawn until its removed. 
+     A fixed sprite (that isn't bound to an object) is placed once when it is added, to move it remove it and add it again */
+    void spriteAdd(JGameEngine.Sprite spr) { 
+	if(spr.obj != null) { 
+	    if(spr.obj.added_sprites == null) spr.obj.added_sprites = new ArrayList<>(); 
+	    if(!spr.obj.added_sprites.contains(spr)) spr.obj.added_sprites.add(spr); 
+	}
+	loop.sprite_queue.add(spr);  
+    }
     /** Remove a sprite from the game space. This may be done once before deletion. Once a sprite is deleted it will no longer be drawn. See addSprite() */
-    void spriteRemove(JGameEngine.Sprite spr) { window.sprite_queue_r.add(spr); }
+    void spriteRemove(JGameEngine.Sprite spr) { 
+	if(spr.obj != null && spr.obj.added_sprites != null) spr.obj.added_sprites.remove(spr);
+	loop.sprite_queue_r.add(spr); 
+    }
+    /** Let go of the images of a sprite that won't be used anymore. Images are shared by every sprite made from the same file (and 
+     subimages), once no sprite uses them they may be dropped to stay within assetBudget(). A sprite that is removed from the Game Space 
+     lets go of them as well (until it is added again), this is only needed for sprites that were never added or are still in it. The 
+     sprite can't be drawn afterwards */
+    void spriteDispose(Sprite spr) { 
+	if(spr.frames == null) return;
+	if(spr.held) assets.release(spr.frames);
+	spr.held = false; spr.frames = null; spr.img = null;
+    }
+    /** Set how much memory (in bytes) images that aren't used by any sprite may take before the least recently used are dropped. 64MB by default */
+    void assetBudget(long bytes) { synchronized(assets) { assets.budget = Math.max(0, bytes); assets.evict(); } }
+    /** Get roughly how much memory (in bytes) the loaded images take, including the ones kept for later */
+    long assetBytes() { synchronized(assets) { return assets.bytes; } }
+    /** Set how much memory (in bytes) sprite frames scaled ahead of time for the camera distance may take, 32MB by default. 0 scales them while drawing instead */
+    void spriteZoomBudget(long bytes) { scaler.budget = Math.max(0, bytes); scaler.clear(); }
     /** Update sprite width but respect the aspect ratio */
     void spriteWidthRelative(Sprite sprite, double width) { sprite.height *= width/sprite.width; sprite.width = width; }
     /** Update sprite height but respect the aspect ratio */
     void spriteHeightRelative(Sprite sprite, double height) { sprite.width *= height/sprite.height; sprite.height = height; }
     //~~~~~~~~~~ Sprite Managment Ends
 
-    //~~~~~~~~~~ Keyboard Input Managment
-    // Keylistener for the window
-    private class Key implements KeyListener {
-	// Single press, Single Release, Button held down
-	private volatile boolean[] pressed, released, pressing, pressed_act, released_act;
-	private volatile boolean allow_remove_pressed = false, allow_remove_released = false;
-	Key() {
-	    pressed = new boolean[118];
-	    released = new boolean[118];
-	    //pressed_act = new boolean[118]; TODO: Fix multi key registeration
-	    //released_act = new boolean[118];
-	    pressing = new boolean[118];
-	    for(int i = 0; i < 118; i++) {
-		pressed[i] = false;
-		released[i] = false;
-		pressing[i] = false;
+    //~~~~~~~~~~ Tile Layers
+    /** A TileLayer is a grid of tiles drawn from a tileset, an image of tiles of the same size. Tiles are numbered from 1, left to right then 
+     top to bottom through the tileset (like Tiled does) and 0 is an empty tile. It is a Sprite so it is added with spriteAdd() and has a 
+     depth and a position like any other. The grid is drawn in chunks of 16x16 tiles that are drawn into an image once and only drawn again 
+     when one of their tiles changes, and only the chunks on camera are drawn */
+    public class TileLayer extends Sprite {
+	private static final int CHUNK = 16;
+	private final int tile_width, tile_height, tiles_x, tiles_y, chunks_x, chunks_y, tileset_x;
+	private final int[] tiles;
+	private BufferedImage tileset;
+	private BufferedImage[] chunk;
+	private boolean[] dirty;
+	private int[] drawn; // the last frame each chunk was drawn in
+	private int baked, frame;
+	private boolean edited; // a tile changed since changed() was last asked
+	private final JGameEngine.Object owner;
+	private TileLayer(Object ob, String tileset, int tile_width, int tile_height, int tiles_x, int tiles_y) {
+	    this.tile_width = tile_width; this.tile_height = tile_height; this.tiles_x = tiles_x; this.tiles_y = tiles_y;
+	    chunks_x = (tiles_x + CHUNK - 1) / CHUNK; chunks_y = (tiles_y + CHUNK - 1) / CHUNK;
+	    tiles = new int[tiles_x * tiles_y];
+	    chunk = new BufferedImage[chunks_x * chunks_y]; dirty = new boolean[chunk.length]; drawn = new int[chunk.length];
+	    width = tiles_x * tile_width; height = tiles_y * tile_height;
+	    super.frames = assets.acquire(tileset, 0, 0, 0, 0);
+	    super.held = super.frames != null;
+	    this.tileset = super.frames != null ? super.frames.img[0] : null;
+	    tileset_x = this.tileset != null ? Math.max(1, this.tileset.getWidth() / tile_width) : 1;
+	    owner = new JGameEngine.Object() { @Override public void start() { } @Override public void update() { } };
+	    owner.name = "TileLayer";
+	    super.obj = ob;
+	}
+	/** Get the tile at a column and row of the grid, 0 when it is empty or outside the grid */
+	public int getTile(int column, int row) { 
+	    if(column < 0 || row < 0 || column >= tiles_x || row >= tiles_y) return 0;
+	    return tiles[row * tiles_x + column]; 
+	}
+	/** Set the tile at a column and row of the grid, 0 to empty it. Only its chunk is drawn again */
+	public void setTile(int column, int row, int tile) {
+	    if(column < 0 || row < 0 || column >= tiles_x || row >= tiles_y || tiles[row * tiles_x + column] == tile) return;
+	    tiles[row * tiles_x + column] = tile;
+	    dirty[(row / CHUNK) * chunks_x + column / CHUNK] = true;
+	    edited = true;
+	}
+	/** Set every tile of the grid at once from an array of columns * rows tiles, row by row (like the layer data of Tiled) */
+	public void setTiles(int[] tiles) {
+	    System.arraycopy(tiles, 0, this.tiles, 0, Math.min(tiles.length, this.tiles.length));
+	    Arrays.fill(dirty, true);
+	    edited = true;
+	}
+	/** Get the number of columns of the grid */
+	public int getColumns() { return tiles_x; }
+	/** Get the number of rows of the grid */
+	public int getRows() { return tiles_y; }
+	/** The Object the collision masks of the solid tiles belong to (see collisionMaskTiles()), collision() is called with it when something touches them. 
+	 This is the Object the layer was made for, or one of its own otherwise */
+	public JGameEngine.Object getOwner() { return super.obj != null ? super.obj : owner; }
+	@Override boolean screen(Rectangle r) {
+	    if(tileset == null) return false;
+	    double left = x, top = y, check_x = x, check_y = y;
+	    if(super.obj != null) { left += lerp(super.obj.prev_x, super.obj.x); top += lerp(super.obj.prev_y, super.obj.y); check_x += super.obj.x; check_y += super.obj.y; }
+	    if(!cameraBounded(check_x, check_y, width, height)) return false;
+	    double cx = lerp(camera.prev_x, camera.x), cy = lerp(camera.prev_y, camera.y);
+	    // The same edges as the chunks at the sides
+	    int x0 = (int) Math.round((left - cx) * camera.d), y0 = (int) Math.round((top - cy) * camera.d);
+	    r.setBounds(x0, y0, (int) Math.round((left + width - cx) * camera.d) - x0, (int) Math.round((top + height - cy) * camera.d) - y0);
+	    return true;
+	}
+	@Override boolean changed() { boolean c = edited; edited = false; return c; }
+	@Override boolean paint(Graphics g) {
+	    if(tileset == null) return false;
+	    double left = x, top = y;
+	    if(super.obj != null) { left += lerp(super.obj.prev_x, super.obj.x); top += lerp(super.obj.prev_y, super.obj.y); }
+	    double cx = lerp(camera.prev_x, camera.x), cy = lerp(camera.prev_y, camera.y);
+	    int cw = CHUNK * tile_width, ch = CHUNK * tile_height;
+	    int c0 = Math.max(0, (int) Math.floor((cx - left) / cw)), c1 = Math.min(chunks_x - 1, (int) Math.floor((cx + cameraWidth() - left) / cw));
+	    int r0 = Math.max(0, (int) Math.floor((cy - top) / ch)), r1 = Math.min(chunks_y - 1, (int) Math.floor((cy + cameraHeight() - top) / ch));
+	    frame++;
+	    for(int r = r0; r <= r1; r++) {
+		for(int c = c0; c <= c1; c++) {
+		    int i = r * chunks_x + c;
+		    if(chunk[i] == null || dirty[i]) bake(c, r);
+		    drawn[i] = frame;
+		    // Worked out from the edges so zoomed chunks meet without gaps
+		    int x0 = (int) Math.round((left + c * cw - cx) * camera.d), x1 = (int) Math.round((left + c * cw + chunk[i].getWidth() - cx) * camera.d);
+		    int y0 = (int) Math.round((top + r * ch - cy) * camera.d), y1 = (int) Math.round((top + r * ch + chunk[i].getHeight() - cy) * camera.d);
+		    if(x1 - x0 == chunk[i].getWidth() && y1 - y0 == chunk[i].getHeight()) g.drawImage(chunk[i], x0, y0, null);
+		    else g.drawImage(chunk[i], x0, y0, x1 - x0, y1 - y0, null);
+		}
+	    }
+	    // Don't keep the whole map in memory, let go of the chunks that are off camera once there are too many
+	    if(baked > Math.max(64, (r1 - r0 + 1) * (c1 - c0 + 1) * 2)) {
+		for(int i = 0; i < chunk.length; i++) if(chunk[i] != null && drawn[i] != frame) { chunk[i] = null; baked--; }
 	    }
+	    return true;
 	}
-	@Override public void keyTyped(KeyEvent e) { }
-	@Override public void keyPressed(KeyEvent e) { allow_remove_pressed = false; if(!pressing[e.getKeyCode()]) pressed[e.getKeyCode()] = true; pressing[e.getKeyCode()] = true; }
-	@Override public void keyReleased(KeyEvent e) { allow_remove_released = false; released[e.getKeyCode()] = true; pressing[e.getKeyCode()] = false; }
-	private synchronized void removePressed() { 
-	    for(int i = 0; i < 118; i++) { /*pressed_act[i] = pressed[i];*/ pressed[i] = false; }
+	private void bake(int c, int r) {
+	    int i = r * chunks_x + c;
+	    int columns = Math.min(CHUNK, tiles_x - c * CHUNK), rows = Math.min(CHUNK, tiles_y - r * CHUNK);
+	    if(chunk[i] == null) { chunk[i] = screenImage(columns * tile_width, rows * tile_height, Transparency.TRANSLUCENT); baked++; }
+	    Graphics2D g = chunk[i].createGraphics();
+	    g.setComposite(AlphaComposite.Clear);
+	    g.fillRect(0, 0, chunk[i].getWidth(), chunk[i].getHeight());
+	    g.setComposite(AlphaComposite.SrcOver);
+	    for(int row = 0; row < rows; row++) {
+		for(int column = 0; column < columns; column++) {
+		    int tile = tiles[(r * CHUNK + row) * tiles_x + c * CHUNK + column] - 1;
+		    if(tile < 0) continue;
+		    int sx = (tile % tileset_x) * tile_width, sy = (tile / tileset_x) * tile_height, dx = column * tile_width, dy = row * tile_height;
+		    g.drawImage(tileset, dx, dy, dx + tile_width, dy + tile_height, sx, sy, sx + tile_width, sy + tile_height, null);
+		}
+	    }
+	    g.dispose();
+	    dirty[i] = false;
+	}
+    }
+    /** Create an empty TileLayer of columns * rows tiles, drawn from a tileset image of tiles of the given width and height. Add it with spriteAdd() */
+    public TileLayer tileLayer(String tileset, int tile_width, int tile_height, int columns, int rows) { return new TileLayer(null, tileset, tile_width, tile_height, columns, rows); }
+    /** Create an empty TileLayer bound to an object, it is drawn relative to the object's position and moves with it like sprite(obj, image) */
+    public TileLayer tileLayer(Object obj, String tileset, int tile_width, int tile_height, int columns, int rows) { return new TileLayer(obj, tileset, tile_width, tile_height, columns, rows); }
+    /** Add collision masks for every tile of the layer that is one of the solid tiles, at once. Neighbouring solid tiles share one rectangular mask. 
+     The masks belong to layer.getOwner(): they move with the object of a layer made for one (and report to it if it implements Collision), 
+     otherwise they are placed where the layer is now. They don't follow later changes to the tiles. They are on collision layer 2 and collide 
+     with every other layer, so they touch the masks on the default layer but the masks of the tiles are never checked against each other */
+    List<CollisionMask> collisionMaskTiles(TileLayer layer, int[] solid) { return collisionMaskTiles(layer, solid, 2, ~2); }
+    /** Add collision masks for the solid tiles of the layer on the given collision layers, see collisionMaskTiles() and CollisionMask.setLayer(). Tiles 
+     that don't collide with their own layer are never checked against each other */
+    List<CollisionMask> collisionMaskTiles(TileLayer layer, int[] solid, int mask_layer, int collides) {
+	int max = 0; for(int t : solid) max = Math.max(max, t);
+	boolean[] is_solid = new boolean[max + 1]; for(int t : solid) if(t > 0) is_solid[t] = true;
+	Object to = layer.getOwner();
+	double ox = 0, oy = 0; // a layer made for an object is placed relative to it, like its masks
+	if(to == layer.owner) { layer.owner.x = layer.x; layer.owner.y = layer.y; }
+	else { ox = layer.x; oy = layer.y; }
+	Collision col = Collision.class.isInstance(to) ? (Collision) to : null;
+	List<CollisionMask> masks = new ArrayList<>();
+	// Each row is split into runs of solid tiles, a rectangle is grown down while the next row has the same run
+	ArrayList<int[]> rects = new ArrayList<>(); // column, row, columns, rows
+	int[] open = new int[layer.tiles_x], next = new int[layer.tiles_x]; // the rectangle of the run starting at each column of the previous row
+	Arrays.fill(open, -1);
+	for(int r = 0; r < layer.tiles_y; r++) {
+	    Arrays.fill(next, -1);
+	    for(int c = 0; c < layer.tiles_x; ) {
+		int a = c;
+		while(c < layer.tiles_x) { int t = layer.tiles[r * layer.tiles_x + c]; if(t <= 0 || t > max || !is_solid[t]) break; c++; }
+		if(c == a) { c++; continue; }
+		int[] above = open[a] != -1 ? rects.get(open[a]) : null;
+		if(above != null && above[2] == c - a) { above[3]++; next[a] = open[a]; }
+		else { rects.add(new int[] { a, r, c - a, 1 }); next[a] = rects.size() - 1; }
+	    }
+	    int[] t = open; open = next; next = t;
+	}
+	for(int[] rect : rects) {
+	    CollisionMask m = new CollisionMask(to, col, ox + rect[0] * layer.tile_width, oy + rect[1] * layer.tile_height, rect[2] * layer.tile_width, rect[3] * layer.tile_height);
+	    m.setLayer(mask_layer, collides);
+	    collisions.add(m); masks.add(m); pooled(m);
 	}
-	private synchronized void removeReleased() {
-	    for(int i = 0; i < 118; i++) { /*released_act[i] = released[i];*/ released[i] = false; }
+	return masks;
+    }
+    //~~~~~~~~~~ Tile Layers Ends
+
+    //~~~~~~~~~~ Asset Preloading
+    /** Read an image in the background, so sprite() doesn't have to read it from the disk later. The future is done once it's ready */
+    Future<?> assetPreloadImage(String image) { return assetPreloadSheet(image, 0, 0, 0, 0); }
+    /** Read an image and cut it into subimages in the background, for sprite() with the same subimages. The future is done once it's ready */
+    Future<?> assetPreloadSheet(String image, int subimages_x, int subimages_width, int subimages_y, int subimages_height) { 
+	return assets.preload(assets.frames(image, subimages_x, subimages_width, subimages_y, subimages_height, true)); 
+    }
+    /** Read a sound into memory in the background, audioPlay() of the same path then plays it without reading the disk. The future is done once it's ready */
+    Future<?> assetPreloadAudio(String path) {
+	return assets.preload(CompletableFuture.runAsync(() -> {
+	    try { Sound sound = Sound.read(path); synchronized(assets) { assets.sounds.put(path, sound); } } 
+	    catch(Exception e) { System.out.println("JGameEngine::assetPreloadAudio() Sound clip (" + path + ") can't be read. details: " + e.toString()); }
+	}, loaders()));
+    }
+    /** Read a ttf font in the background, textFontCreate() and textFont() of the same path then only need to size it. The future is done once it's ready */
+    Future<?> assetPreloadFont(String path) {
+	return assets.preload(CompletableFuture.runAsync(() -> {
+	    try { Font font = Font.createFont(Font.TRUETYPE_FONT, new File(path)); synchronized(assets) { assets.fonts.put(path, font); } }
+	    catch(Exception e) { System.out.println("JGameEngine::assetPreloadFont() font " + path + " can't be read. details: " + e.toString()); }
+	}, loaders()));
+    }
+    /** Preload a list of files in the background, each by its extension: ttf as fonts, wav/au/aiff as audio and everything else as images. 
+     Sprite sheets need assetPreloadSheet(). Returns a future for each file, see assetProgress() for a loading screen */
+    List<Future<?>> assetPreload(String... files) {
+	List<Future<?>> futures = new ArrayList<>();
+	for(String file : files) {
+	    String f = file.toLowerCase();
+	    if(f.endsWith(".ttf")) futures.add(assetPreloadFont(file));
+	    else if(f.endsWith(".wav") || f.endsWith(".au") || f.endsWith(".aif") || f.endsWith(".aiff")) futures.add(assetPreloadAudio(file));
+	    else futures.add(assetPreloadImage(file));
+	}
+	return futures;
+    }
+    /** Get how much of everything that was preloaded is ready, from 0 to 1 (1 when nothing is being preloaded) */
+    double assetProgress() { synchronized(assets) { return assets.preloads == 0 ? 1 : (double) assets.preloaded / assets.preloads; } }
+    //~~~~~~~~~~ Asset Preloading Ends
+
+    //~~~~~~~~~~ Keyboard Input Managment
+    // Input events on their way from the AWT thread to the game thread, through a ring buffer without locks: the AWT thread (the only 
+    // one sending events) only writes events and moves the tail, the game thread only reads them and moves the head. Before every update 
+    // the game thread plays the events that came since the last one onto the state of the keys and buttons, which doesn't change again 
+    // until the next update, so everything asked about in one update is consistent. A key pressed and released between two updates still 
+    // counts as pressed (and released) once. The mouse position isn't an event, only the last one matters
+    private class Input {
+	private static final int SIZE = 1 << 12; // events that can wait for the next update, more are dropped
+	private static final int KEYS = 1 << 16; // key codes that are tracked
+	private static final int KEY_DOWN = 0, KEY_UP = 1, BUTTON_DOWN = 2, BUTTON_UP = 3, ENTER = 4, EXIT = 5;
+	private static final int LEFT = 1, RIGHT = 2; // bits of the mouse buttons
+	private final long[] events = new long[SIZE];
+	private volatile long head, tail;
+	private volatile long position; // x and y of the mouse in the window, packed so they're read together
+	// State of the current update, only changed by update()
+	private final long[] held = new long[KEYS / 64], pressed = new long[KEYS / 64], released = new long[KEYS / 64];
+	private final Ints touched = new Ints(); // words of pressed and released that have bits set
+	private int buttons, buttons_pressed, buttons_released, mouse_x, mouse_y;
+	private boolean inside;
+	// Called on the AWT thread
+	private void push(int type, int code) {
+	    long t = tail;
+	    if(t - head >= SIZE) return; // nothing has been updated for a long time (the game isn't running)
+	    events[(int) t & (SIZE - 1)] = ((long) type << 32) | (code & 0xffffffffL);
+	    tail = t + 1; // publishes the event
+	}
+	private void move(int x, int y) { position = ((long) x << 32) | (y & 0xffffffffL); }
+	// Called on the game thread before every update
+	private void update() {
+	    for(int i = 0; i < touched.size; i++) { pressed[touched.get(i)] = 0; released[touched.get(i)] = 0; }
+	    touched.clear();
+	    buttons_pressed = 0; buttons_released = 0;
+	    long h = head, t = tail;
+	    for(; h < t; h++) {
+		long e = events[(int) h & (SIZE - 1)];
+		int type = (int) (e >>> 32), code = (int) e;
+		if(type == KEY_DOWN || type == KEY_UP) {
+		    if(code < 0 || code >= KEYS) continue;
+		    int w = code >>> 6; long bit = 1L << code;
+		    if(pressed[w] == 0 && released[w] == 0) touched.add(w);
+		    // Holding a key down repeats its presses, only the first counts
+		    if(type == KEY_DOWN) { if((held[w] & bit) == 0) pressed[w] |= bit; held[w] |= bit; }
+		    else { released[w] |= bit; held[w] &= ~bit; }
+		}
+		else if(type == BUTTON_DOWN) { if((buttons & code) == 0) buttons_pressed |= code; buttons |= code; }
+		else if(type == BUTTON_UP) { buttons_released |= code; buttons &= ~code; }
+		else inside = type == ENTER;
+	    }
+	    head = t;
+	    long p = position;
+	    mouse_x = (int) (p >> 32); mouse_y = (int) p;
 	}
-    }        
+	private boolean is(long[] bits, int code) { return code >= 0 && code < KEYS && (bits[code >>> 6] & (1L << code)) != 0; }
+    }
+    // Keylistener for the window
+    private class Key implements KeyListener {
+	@Override public void keyTyped(KeyEvent e) { }
+	@Override public void keyPressed(KeyEvent e) { input.push(Input.KEY_DOWN, e.getKeyCode()); }
+	@Override public void keyReleased(KeyEvent e) { input.push(Input.KEY_UP, e.getKeyCode()); }
+    }
+    private final ConcurrentHashMap<String, Integer> keys = new ConcurrentHashMap<>(); // key names that were already looked up
     // Helper to convert english to key codes 
     private int key_code(String key) {
 	if(key.length() == 1) {
@@ -446,97 +1760,68 @@ public class JGameEngine {
 	else if("right_click".equals(key)) return 93; else if("esc".equals(key)) return 27;
 	return -1;
     }
-    /** Will return true once when the key is first held down
+    /** Get the handle of a key from its name, to check it with keyPressed(int), keyPressing(int) and keyReleased(int) without looking 
+     *  the name up every time. It is the key code of the key (see KeyEvent), -1 if there's no key with that name
      *  @param key A string representation of the key. May be one of the following: up, down, left, right, space, tab, enter, ctrl, alt, right_click, esc, [A-Z], [0-9], [Special Characters]*/
-    public boolean keyPressed(String key) {
-	int code = key_code(key);
-	return keyboard.allow_remove_pressed && keyboard.pressed[code];
+    public int key(String key) {
+	Integer code = keys.get(key);
+	if(code == null) { code = key_code(key); keys.put(key, code); }
+	return code;
     }
+    /** Will return true once when the key of the handle is first held down, see key() */
+    public boolean keyPressed(int key) { return input.is(input.pressed, key); }
+    /** Will return true as long as the key of the handle is being held down, see key() */
+    public boolean keyPressing(int key) { return input.is(input.held, key); }
+    /** Will return true once when the key of the handle stops being held down, see key() */
+    public boolean keyReleased(int key) { return input.is(input.released, key); }
+    /** Will return true once when the key is first held down
+     *  @param key A string representation of the key. May be one of the following: up, down, left, right, space, tab, enter, ctrl, alt, right_click, esc, [A-Z], [0-9], [Special Characters]*/
+    public boolean keyPressed(String key) { return keyPressed(key(key)); }
     /** Will return true as long as the key is being held down
      *  @param key A string representation of the key. May be one of the following: up, down, left, right, space, tab, enter, ctrl, alt, right_click, esc, [A-Z], [0-9], [Special Characters]*/
-    public boolean keyPressing(String key) {
-	int code = key_code(key);
-	return keyboard.pressing[code];
-    }
+    public boolean keyPressing(String key) { return keyPressing(key(key)); }
     /** Will return true once when the key stops being held down
      *  @param key A string representation of the key. May be one of the following: up, down, left, right, space, tab, enter, ctrl, alt, right_click, esc, [A-Z], [0-9], [Special Characters]*/
-    public boolean keyReleased(String key) {
-	int code = key_code(key);
-	return keyboard.allow_remove_released && keyboard.released[code];
-    }
+    public boolean keyReleased(String key) { return keyReleased(key(key)); }
     //~~~~~~~~~~ Keyboard Input Managment Ends
 
     //~~~~~~~~~~ Mouse Input Managment 
-    private class Mouse implements MouseListener { 
-	private boolean mouseClicked = false, mouseRightClicked = false;
-	private boolean mouseClicking = false, mouseReleased = false;
-	private boolean windowFocus, allow_remove_clicked = false, allow_remove_released = false;
+    private class Mouse implements MouseListener, MouseMotionListener { 
 	@Override public void mouseClicked(MouseEvent e) { }
 	@Override public void mousePressed(MouseEvent e) { 
-	    allow_remove_clicked = false; 
-	    if(!SwingUtilities.isRightMouseButton(e)) {
-		if(mouseClicked == true) mouseClicked = false; else mouseClicked = true; mouseClicking = true; 
-	    } else {
-		if(mouseRightClicked == true) mouseRightClicked = false; else mouseRightClicked = true; 	    
-	    }
+	    input.move(e.getX(), e.getY());
+	    input.push(Input.BUTTON_DOWN, SwingUtilities.isRightMouseButton(e) ? Input.RIGHT : Input.LEFT);
 	}
 	@Override public void mouseReleased(MouseEvent e) { 
-	    if(SwingUtilities.isRightMouseButton(e)) return;
-	    allow_remove_released = false; mouseClicking = false; mouseReleased = true; 
+	    input.move(e.getX(), e.getY());
+	    input.push(Input.BUTTON_UP, SwingUtilities.isRightMouseButton(e) ? Input.RIGHT : Input.LEFT);
 	}
-	@Override public void mouseEntered(MouseEvent e) { windowFocus = true; }
-	@Override public void mouseExited(MouseEvent e) { windowFocus = false; }
-	private void removeClicked() { mouseClicked = false; mouseRightClicked = false; }
-	private void removeReleased() { mouseReleased = false; }
+	@Override public void mouseEntered(MouseEvent e) { input.move(e.getX(), e.getY()); input.push(Input.ENTER, 0); }
+	@Override public void mouseExited(MouseEvent e) { input.move(e.getX(), e.getY()); input.push(Input.EXIT, 0); }
+	@Override public void mouseMoved(MouseEvent e) { input.move(e.getX(), e.getY()); }
+	@Override public void mouseDragged(MouseEvent e) { input.move(e.getX(), e.getY()); }
     }
     /** Get the x-position of the mouse inside the window, if the mouse is outside the window it will assume that the mouse is at the corner. You can use mouseFocused() to see if mouse is inside the window */
-    public int mouseX() {
-	try { return window.getContentPane().getMousePosition(true).x; }
-	catch(Exception e) { 
-	    if(MouseInfo.getPointerInfo().getLocation().x > window.getContentPane().getX() + window.getX() + window.getContentPane().getWidth()) 
-		return window.getContentPane().getWidth() - 32;
-	    else if(MouseInfo.getPointerInfo().getLocation().y > window.getContentPane().getY() + window.getY() + window.getContentPane().getHeight())
-		if(MouseInfo.getPointerInfo().getLocation().x <= window.getContentPane().getX() + window.getX())
-		    return 0;
-		else return MouseInfo.getPointerInfo().getLocation().x - window.getContentPane().getX() - window.getX();
-	    else if(MouseInfo.getPointerInfo().getLocation().x > window.getContentPane().getX() + window.getX())
-		return MouseInfo.getPointerInfo().getLocation().x - window.getContentPane().getX() - window.getX();
-	    else return 0;
-	}
-    }
+    public int mouseX() { return Math.max(0, Math.min(windowWidth(), input.mouse_x)); }
     /** Get the y-position of the mouse inside the window, if the mouse is outside the window it will assume that the mouse is at the corner. You can use mouseFocused() to see if mouse is inside the window */
-    public int mouseY() {
-	try { return window.getContentPane().getMousePosition(true).y; }
-	catch(Exception e) { 
-	    if(MouseInfo.getPointerInfo().getLocation().y > window.getContentPane().getY() + window.getY() + window.getContentPane().getHeight()) 
-		if(MouseInfo.getPointerInfo().getLocation().x < window.getContentPane().getX() + window.getX() + window.getContentPane().getWidth()) 
-		    return window.getContentPane().getHeight() - 32;
-		else return window.getContentPane().getHeight() - 32; 
-	    else if(MouseInfo.getPointerInfo().getLocation().x > window.getContentPane().getX() + window.getX() + window.getContentPane().getWidth() && MouseInfo.getPointerInfo().getLocation().y < window.getContentPane().getY() + window.getY())
-		return 0;
-	    else if(MouseInfo.getPointerInfo().getLocation().x < window.getContentPane().getX() + window.getX() && MouseInfo.getPointerInfo().getLocation().y < window.getContentPane().getY() + window.getY())
-		return 0;
-	    else if(MouseInfo.getPointerInfo().getLocation().x > window.getContentPane().getX() + window.getX() && MouseInfo.getPointerInfo().getLocation().x < window.getContentPane().getX() + window.getX() + window.getContentPane().getWidth())
-		return 0;
-	    else return MouseInfo.getPointerInfo().getLocation().y - window.getContentPane().getY() - window.getY() - 16;
-	}
-    }
+    public int mouseY() { return Math.max(0, Math.min(windowHeight(), input.mouse_y)); }
     /** Remove the cursor of the mouse. It can not be added back once it has been removed. */
     public void mouseDisableCursor() {
+	if(window == null) return;
 	BufferedImage cursorImg = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
 	Cursor blankCursor = Toolkit.getDefaultToolkit().createCustomCursor(cursorImg, new Point(0, 0), "blank cursor");
 	window.getContentPane().setCursor(blankCursor);
     }
     /** Check if the mouse was left clicked. Occurs once the first click. */
-    public boolean mouseClicked() { return mouse.allow_remove_clicked && mouse.mouseClicked; }
+    public boolean mouseClicked() { return (input.buttons_pressed & Input.LEFT) != 0; }
     /** Check if the mouse was right clicked. Occurs once the first click. */
-    public boolean mouseRightClicked() { return mouse.allow_remove_clicked && mouse.mouseRightClicked; }
+    public boolean mouseRightClicked() { return (input.buttons_pressed & Input.RIGHT) != 0; }
     /** Check if the mouse stopped being clicked. Occurs once when finger is lifted off. */
-    public boolean mouseReleased() { return mouse.allow_remove_released && mouse.mouseReleased; }
+    public boolean mouseReleased() { return (input.buttons_released & Input.LEFT) != 0; }
     /** Check if the mouse being left clicked. Occurs as long as the finger isn't lifted off. */
-    public boolean mouseClicking() { return mouse.mouseClicking; }
+    public boolean mouseClicking() { return (input.buttons & Input.LEFT) != 0; }
     /** Check if the mouse is inside the window */
-    public boolean mouseFocused() { return mouse.windowFocus; }
+    public boolean mouseFocused() { return input.inside; }
     //~~~~~~~~~~ Mouse Input Managment Ends
 
     //~~~~~~~~~~ Camera 
@@ -580,13 +1865,15 @@ public class JGameEngine {
     /** Set the camera's y-coordinate in the Game Space */ 
     public void cameraY(double y) { camera.y = y; } 
     /** Get how much the camera sees in the x-direction. When camera distance is 1 this value is same as windowWidth() otherwise the value scales with the cameraDistance */
-    public double cameraWidth() { return window.width * 1 / camera.d; } 
+    public double cameraWidth() { return screen.width() * 1 / camera.d; } 
     /** Get how much the camera sees in the y-direction. When camera distance is 1 this value is same as windowHeight() otherwise the value scales with the cameraDistance */
-    public double cameraHeight() { return window.height * 1 / camera.d; }
+    public double cameraHeight() { return screen.height() * 1 / camera.d; }
     /** Set the camera distance */ 
-    public void cameraDistance(double distance) { camera.d = 1/distance; } 
+    public void cameraDistance(double distance) { if(1/distance != camera.d) { camera.d = 1/distance; scaler.clear(); } } 
     /** Get the camera distance */ 
     public double cameraDistance() { return 1/camera.d; }
+    // Position between the last two fixed updates, see frameAlpha()
+    private double lerp(double from, double to) { return frameAlpha >= 1 ? to : from + (to - from) * frameAlpha; }
     // Get X, Y position relative to camera position to translate position to Window Space
     private double cameraCoordX(double x) { return x - camera.x; }
     private double cameraCoordY(double y) { return y - camera.y; }
@@ -594,43 +1881,67 @@ public class JGameEngine {
     public boolean cameraBounded(double x, double y, double width, double height) {
 	x = cameraCoordX(x); y = cameraCoordY(y);
 	x *= camera.d; y *= camera.d; width *= camera.d; height *= camera.d;
-	if(x + width < 0 && y + width < 0) return false;
-	if(x > windowWidth() && y > windowHeight()) return false;
+	if(x + width < 0 || y + height < 0) return false;
+	if(x > windowWidth() || y > windowHeight()) return false;
 	return true;
     } 
     //~~~~~~~~~~ Camera Ends
 
     //~~~~~~~~~~ Fonts 
+    // Fonts that were already made, so setting the font or its size every frame doesn't make a new one. A font is found by what it was 
+    // made from (a system font name, a ttf path or the font it was resized from), its style and its size. The size of text that was 
+    // measured or drawn lately is kept too, so drawing text that rarely changes (a score, a label) doesn't lay it out again just to cull it.
+    // Lookups use a probe key that is reused, so finding something doesn't create anything
     private class Fonts {
-	ArrayList<String> name;
-	ArrayList<Font> font;
-	public Fonts() {
-	    name = new ArrayList<>();
-	    font = new ArrayList<>();
+	private static final int TEXTS = 256; // most texts whose size is kept
+	private final HashMap<FontKey, Font> fonts = new HashMap<>();
+	private final FontKey font_probe = new FontKey();
+	private final LinkedHashMap<Text, Text> texts = new LinkedHashMap<Text, Text>(64, 0.75f, true) { // least recently used first
+	    @Override protected boolean removeEldestEntry(Map.Entry<Text, Text> eldest) { return size() > TEXTS; }
+	};
+	private final Text text_probe = new Text();
+	private Font get(java.lang.Object from, int style, float size) { return fonts.get(font_probe.set(from, style, size)); }
+	private void put(java.lang.Object from, int style, float size, Font f) { fonts.put(new FontKey().set(from, style, size), f); }
+	// The size of the text in the font of g, measured if it wasn't kept
+	private Text text(Graphics g, String s) {
+	    Font font = g.getFont();
+	    Text t = texts.get(text_probe.set(font, s));
+	    if(t != null) return t;
+	    t = new Text().set(font, s);
+	    FontMetrics fm = g.getFontMetrics(font);
+	    t.width = fm.stringWidth(s); t.height = fm.getStringBounds(s, g).getHeight();
+	    t.ascent = fm.getMaxAscent(); t.descent = fm.getMaxDescent();
+	    texts.put(t, t);
+	    return t;
 	}
-	private void addFont(String name, Font font) {
-	    if(getFont(name) != -1) return;
-	    this.name.add(name);
-	    this.font.add(font);
-	}
-	private void addFont(Font f) { 
-	    if(getFont(f) != -1) return;
-	    this.name.add(f.getFontName()+"~"+((float)f.getSize()));
-	    this.font.add(f);
-	}
-	private int getFont(String name) {
-	    for(int i = 0; i < this.name.size(); i++) if(this.name.get(i).equals(name)) return i;	
-	    return -1;
+    }
+    private static class FontKey {
+	private java.lang.Object from; private int style; private float size;
+	private FontKey set(java.lang.Object from, int style, float size) { this.from = from; this.style = style; this.size = size; return this; }
+	@Override public int hashCode() { return (from.hashCode() * 31 + style) * 31 + Float.floatToIntBits(size); }
+	@Override public boolean equals(java.lang.Object o) { 
+	    if(!(o instanceof FontKey)) return false;
+	    FontKey k = (FontKey) o;
+	    return style == k.style && size == k.size && from.equals(k.from);
 	}
-	private int getFont(Font ft) {
-	    for(int i = 0; i < this.font.size(); i++) if(this.font.get(i).equals(ft)) return i;	
-	    return -1;
+    }
+    // A text in a font and its size
+    private static class Text {
+	private Font font; private String s;
+	private int width, ascent, descent;
+	private double height;
+	private Text set(Font font, String s) { this.font = font; this.s = s; return this; }
+	@Override public int hashCode() { return font.hashCode() * 31 + s.hashCode(); }
+	@Override public boolean equals(java.lang.Object o) {
+	    if(!(o instanceof Text)) return false;
+	    Text t = (Text) o;
+	    return s.equals(t.s) && font.equals(t.font);
 	}
     }
     //~~~~~~~~~~ Fonts Ends
     //~~~~~~~~~~ Draw
     /** Directly access the Graphics Object. This is not recommended as objects drawn from this will always be in the Camera Space (May be avoided if CameraX, CameraY, CameraDistance is used) */
-    public Graphics draw() { return window.g; }
+    public Graphics draw() { return loop.g; }
     /** Get the colour that the Graphics Object will use */ 
     public Color drawColor() { return draw().getColor(); } 
     /** Set the colour that the Graphics Object will use */ 
@@ -638,22 +1949,36 @@ public class JGameEngine {
     /** Draw a line */ 
     public void drawLine(double x1, double y1, double x2, double y2) { 
 	if(x2>x1 && y2>y1 && cameraBounded(x1,y1,x2-x1,y2-y1)) { x1 = cameraCoordX(x1); y1 = cameraCoordY(y1); x2 = cameraCoordX(x2); y2 = cameraCoordY(y2);
-	    draw().drawLine((int) (x1 * camera.d), (int) (y1 * camera.d), (int) (x2 * camera.d), (int) (y2 * camera.d)); } 
+	    int dx1 = (int) (x1 * camera.d), dy1 = (int) (y1 * camera.d), dx2 = (int) (x2 * camera.d), dy2 = (int) (y2 * camera.d);
+	    draw().drawLine(dx1, dy1, dx2, dy2); drawn(dx1, dy1, dx2 - dx1 + 1, dy2 - dy1 + 1, 1); } 
     }
     /** Draw an oval */ 
     public void drawOval(double x, double y, double w, double h) {
 	if(cameraBounded(x,y,w,h)) { x = cameraCoordX(x); y = cameraCoordY(y);
-	    draw().drawOval((int) (x * camera.d), (int) (y * camera.d), (int) (w * camera.d), (int) (h * camera.d)); } 
+	    int dx = (int) (x * camera.d), dy = (int) (y * camera.d), dw = (int) (w * camera.d), dh = (int) (h * camera.d);
+	    draw().drawOval(dx, dy, dw, dh); drawn(dx, dy, dw + 1, dh + 1, 2); } 
     }
     /** Draw a rectangle */ 
     public void drawRect(double x, double y, double w, double h) { 
 	if(cameraBounded(x,y,w,h)) { x = cameraCoordX(x); y = cameraCoordY(y);
-	    draw().drawRect((int) (x * camera.d), (int) (y * camera.d), (int) (w * camera.d), (int) (h * camera.d)); }
+	    int dx = (int) (x * camera.d), dy = (int) (y * camera.d), dw = (int) (w * camera.d), dh = (int) (h * camera.d);
+	    draw().drawRect(dx, dy, dw, dh); drawn(dx, dy, dw + 1, dh + 1, 3); }
     }
     /** Draw text */ 
     public void drawText(String s, double x, double y) { 
-    	if(cameraBounded(x,y,textWidth(s),textHeight(s))) { x = cameraCoordX(x); y = cameraCoordY(y);
-	    draw().drawString(s, (int) (x * camera.d), (int) (y * camera.d)); }
+	JGameEngine.Text t = fonts.text(draw(), s);
+	if(cameraBounded(x,y,t.width,t.height)) { x = cameraCoordX(x); y = cameraCoordY(y);
+	    int dx = (int) (x * camera.d), dy = (int) (y * camera.d);
+	    draw().drawString(s, dx, dy);
+	    drawn(dx, dy - t.ascent, t.width, t.ascent + t.descent, s.hashCode() * 31 + 4); }
+    }
+    // Let dirty rectangle rendering know a draw call covered the given box of the screen. what tells what was drawn, 
+    // the colour and font are added to it
+    private void drawn(int x, int y, int w, int h, int what) {
+	JGameEngine.Dirty d = dirty;
+	if(d == null || loop.g != d.g) return;
+	Graphics g = draw();
+	d.call(x, y, w, h, (what * 31 + g.getColor().getRGB()) * 31 + g.getFont().hashCode());
     }
     /** Draw a line */ 
     public void drawLine(double x1, double y1, double x2, double y2, Color c) { Color t = draw().getColor(); drawLine(x1, y1, x2, y2); draw().setColor(t); }
@@ -664,138 +1989,478 @@ public class JGameEngine {
     /** Draw text */ 
     public void drawText(String s, double x, double y, Color c) { Color t = draw().getColor(); draw().setColor(c); drawText(s, x, y); draw().setColor(t); }
     /** Get the width of a text */  
-    public double textWidth(String s) { return draw().getFontMetrics().stringWidth(s); }
+    public double textWidth(String s) { return fonts.text(draw(), s).width; }
     /** Get the height of a text */ 
-    public double textHeight(String s) { return draw().getFontMetrics().getStringBounds(s, draw()).getHeight(); }
+    public double textHeight(String s) { return fonts.text(draw(), s).height; }
     /** Change the font of text to a system font. Type can be changed to "italic" and "bold", otherwise it will be normal. 3rd parameter is font size */  
     public void textFontSystem(String name, String type, int size) { 	
-	type = type.toLowerCase(); 
-	int i = fonts.getFont(name+type+"~"+size); if(i != -1) { draw().setFont(fonts.font.get(i)); return; }
-	int t = Font.PLAIN; if(type.equals("bold")) t = Font.BOLD; else if(type.equals("italic")) t = Font.ITALIC; 
+	int t = Font.PLAIN; if(type.equalsIgnoreCase("bold")) t = Font.BOLD; else if(type.equalsIgnoreCase("italic")) t = Font.ITALIC; 
+	Font f = fonts.get(name, t, size); if(f != null) { draw().setFont(f); return; }
 	draw().setFont(new Font(name, t, size * (int) camera.d)); 
-	fonts.addFont(name+type+"~"+size, draw().getFont()); }
+	fonts.put(name, t, size, draw().getFont()); }
     /** Create a Font Object from the given path, ttf format supported only. */  
     public Font textFontCreate(String path, float size) { 
-	int i = fonts.getFont(path+"~"+size); if(i != -1) return fonts.font.get(i); Font font = null;
-	try { font = Font.createFont(Font.TRUETYPE_FONT, new File(path)); font = font.deriveFont(size * (float) camera.d); }
+	Font font = fonts.get(path, -1, size); if(font != null) return font; font = assets.font(path);
+	try { if(font == null) font = Font.createFont(Font.TRUETYPE_FONT, new File(path)); font = font.deriveFont(size * (float) camera.d); }
 	catch(Exception e) { System.out.println("JGameEngine::textFont() font " + path + " can't be set. details: " + e.toString()); }
-	if(font != null) fonts.addFont(path+"~"+size, font);
+	if(font != null) fonts.put(path, -1, size, font);
 	return font;
     }
     /** Change the current font to a Font Object */
-    public void textFont(Font font) { fonts.addFont(font); draw().setFont(font); }
+    public void textFont(Font font) { draw().setFont(font); }
     /** Change the current font from the given path, ttf format supported only. */
     public void textFont(String path, float size) { draw().setFont(textFontCreate(path, size)); }
     /** Change the font size */
-    public void textSize(float size) { int i = fonts.getFont(draw().getFont().getName()+"~"+size);
-	if(i != -1) { draw().setFont(fonts.font.get(i)); return; } Font f = draw().getFont().deriveFont(size); 
-	fonts.addFont(f); draw().setFont(f); 
+    public void textSize(float size) { Font from = draw().getFont(); if(from.getSize2D() == size) return;
+	Font f = fonts.get(from, 0, size); if(f == null) { f = from.deriveFont(size); fonts.put(from, 0, size, f); } 
+	draw().setFont(f); 
     }
     /** Draw an filled oval of colour c */ 
     public void drawOval(double x, double y, double w, double h, Color c, Boolean fill) { Color t = draw().getColor(); draw().setColor(c); 
 	if(fill && cameraBounded(x,y,w,h)) { x = cameraCoordX(x); y = cameraCoordY(y);
-	    draw().fillOval((int) (x * camera.d), (int) (y * camera.d), (int) (w * camera.d), (int) (h * camera.d));
+	    int dx = (int) (x * camera.d), dy = (int) (y * camera.d), dw = (int) (w * camera.d), dh = (int) (h * camera.d);
+	    draw().fillOval(dx, dy, dw, dh); drawn(dx, dy, dw, dh, 5);
 	} else drawOval(x, y, w, h); draw().setColor(t); 
     }
     /** Draw a filled rectangle of colour c*/ 
     public void drawRect(double x, double y, double w, double h, Color c, Boolean fill) { Color t = draw().getColor(); draw().setColor(c); 
 	if(fill && cameraBounded(x,y,w,h)) { x = cameraCoordX(x); y = cameraCoordY(y);
-	    draw().fillRect((int) (x * camera.d), (int) (y * camera.d), (int) (w * camera.d), (int) (h * camera.d));
+	    int dx = (int) (x * camera.d), dy = (int) (y * camera.d), dw = (int) (w * camera.d), dh = (int) (h * camera.d);
+	    draw().fillRect(dx, dy, dw, dh); drawn(dx, dy, dw, dh, 6);
 	} else drawRect(x, y, w, h); draw().setColor(t); 
     }
     //~~~~~~~~~~ Draw Ends
     
     //~~~~~~~~~~ Collisions https://gamedevelopment.tutsplus.com/tutorials/quick-tip-use-quadtrees-to-detect-likely-collisions-in-2d-space--gamedev-374
-    private class Quadtree {
-	private int MAX_OBJECTS = 10, MAX_LEVELS = 5;
-	private int level;
-	ArrayList<CollisionMask> objects, objects_a, objects_r;
-	private Rectangle bounds;
-	private Quadtree[] nodes;
-	public Quadtree(int pLevel, Rectangle pBounds) {
-	    level = pLevel;   objects = new ArrayList(); objects_r = new ArrayList();
-	    bounds = pBounds; nodes = new Quadtree[4];   objects_a = new ArrayList();
+    // Growable list of ints, used to keep mask rows without boxing them
+    private static class Ints {
+	int[] data = new int[16];
+	int size;
+	void add(int v) { if(size == data.length) data = Arrays.copyOf(data, size * 2); data[size++] = v; }
+	int get(int i) { return data[i]; }
+	void clear() { size = 0; }
+    }
+    // Every mask in the Game Space, stored as one row across arrays of primitives so the narrow phase can run over them 
+    // without creating any objects. The box of each mask in the Game Space is worked out once per frame by bounds()
+    private class Masks {
+	private CollisionMask[] mask = new CollisionMask[0];
+	private JGameEngine.Object[] owner = new JGameEngine.Object[0];
+	private byte[] type = new byte[0];
+	private double[] x = new double[0], y = new double[0], w = new double[0], h = new double[0]; // relative to the owner, w is the radius of a circle
+	private double[] bx = new double[0], by = new double[0], bw = new double[0], bh = new double[0]; // box in the Game Space this frame
+	private double[] last_x = new double[0], last_y = new double[0]; // where the owner was when the broad phase last placed the mask
+	private int[] layer = new int[0], collides = new int[0]; // bits of the layers the mask is on and the layers it collides with
+	private int count;
+	private void grow() {
+	    int n = Math.max(64, count * 2);
+	    mask = Arrays.copyOf(mask, n); owner = Arrays.copyOf(owner, n); type = Arrays.copyOf(type, n);
+	    x = Arrays.copyOf(x, n); y = Arrays.copyOf(y, n); w = Arrays.copyOf(w, n); h = Arrays.copyOf(h, n);
+	    bx = Arrays.copyOf(bx, n); by = Arrays.copyOf(by, n); bw = Arrays.copyOf(bw, n); bh = Arrays.copyOf(bh, n);
+	    last_x = Arrays.copyOf(last_x, n); last_y = Arrays.copyOf(last_y, n);
+	    layer = Arrays.copyOf(layer, n); collides = Arrays.copyOf(collides, n);
+	}
+	private int add(CollisionMask m) {
+	    if(count == mask.length) grow();
+	    int i = count++;
+	    mask[i] = m; owner[i] = m.o; type[i] = (byte) m.type;
+	    x[i] = m.x; y[i] = m.y; w[i] = m.w; h[i] = m.h;
+	    layer[i] = m.layer; collides[i] = m.collides;
+	    m.index = i;
+	    if(m.o != null) {
+		if(m.o.masks == null) m.o.masks = new ArrayList<>();
+		m.owner_slot = m.o.masks.size(); m.o.masks.add(m);
+	    }
+	    bounds(i); placed(i);
+	    return i;
+	}
+	// Move the last row into row i, returns the row that was moved (i if it was the last row itself)
+	private int remove(int i) {
+	    int last = --count;
+	    CollisionMask m = mask[i];
+	    m.index = -1;
+	    if(m.o != null) {
+		// Swap the last mask of the owner into its place
+		CollisionMask moved = m.o.masks.remove(m.o.masks.size() - 1);
+		if(moved != m) { m.o.masks.set(m.owner_slot, moved); moved.owner_slot = m.owner_slot; }
+		m.owner_slot = -1;
+	    }
+	    if(i != last) {
+		mask[i] = mask[last]; owner[i] = owner[last]; type[i] = type[last];
+		x[i] = x[last]; y[i] = y[last]; w[i] = w[last]; h[i] = h[last];
+		bx[i] = bx[last]; by[i] = by[last]; bw[i] = bw[last]; bh[i] = bh[last];
+		last_x[i] = last_x[last]; last_y[i] = last_y[last];
+		layer[i] = layer[last]; collides[i] = collides[last];
+		mask[i].index = i;
+	    }
+	    mask[last] = null; owner[last] = null;
+	    return last;
+	}
+	private void bounds() { for(int i = 0; i < count; i++) bounds(i); }
+	private void bounds(int i) {
+	    bx[i] = x[i]; by[i] = y[i];
+	    if(owner[i] != null) { bx[i] += owner[i].x; by[i] += owner[i].y; }
+	    bw[i] = type[i] == 1 ? w[i] * 2 : w[i]; bh[i] = type[i] == 1 ? w[i] * 2 : h[i];
+	}
+	private boolean moved(int i) { return owner[i] != null && (owner[i].x != last_x[i] || owner[i].y != last_y[i]); }
+	private void placed(int i) { if(owner[i] != null) { last_x[i] = owner[i].x; last_y[i] = owner[i].y; } }
+	// Two masks are only checked if each of them collides with a layer the other is on
+	private boolean accepts(int i, int j) { return (layer[i] & collides[j]) != 0 && (layer[j] & collides[i]) != 0; }
+	// Check if two masks touch
+	private boolean check(int i, int j) {
+	    if(type[i] == 0 && type[j] == 0) return checkRects(bx[i], by[i], bw[i], bh[i], bx[j], by[j], bw[j], bh[j]);
+	    if(type[i] == 1 && type[j] == 1) return checkCircles(bx[i], by[i], w[i], bx[j], by[j], w[j]);
+	    if(type[i] == 0) return checkRectCircle(bx[i], by[i], bw[i], bh[i], bx[j], by[j], w[j]);
+	    return checkRectCircle(bx[j], by[j], bw[j], bh[j], bx[i], by[i], w[i]);
+	}
+	// Check if a mask touches a rectangle
+	private boolean check(int i, double rx, double ry, double rw, double rh) {
+	    if(type[i] == 0) return checkRects(bx[i], by[i], bw[i], bh[i], rx, ry, rw, rh);
+	    return checkRectCircle(rx, ry, rw, rh, bx[i], by[i], w[i]);
+	}
+    }
+    // https://developer.mozilla.org/en-US/docs/Games/Techniques/2D_collision_detection & https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection
+    // Circles are given by the top left of their box and their radius
+    private static boolean checkRects(double x1, double y1, double w1, double h1, double x2, double y2, double w2, double h2) {
+	return x1 < x2 + w2 && x1 + w1 > x2 && y1 < y2 + h2 && y1 + h1 > y2;
+    }
+    private static boolean checkCircles(double x1, double y1, double r1, double x2, double y2, double r2) {
+	double	dx = x1 - x2 + r1 - r2,
+		dy = y1 - y2 + r1 - r2;
+	return dx * dx + dy * dy < (r1 + r2) * (r1 + r2);
+    }
+    private static boolean checkRectCircle(double x, double y, double w, double h, double cx, double cy, double r) {
+	cx += r; cy += r;
+	double	DeltaX = cx - Math.max(x, Math.min(cx, x + w)),
+		DeltaY = cy - Math.max(y, Math.min(cy, y + h));
+	return (DeltaX * DeltaX + DeltaY * DeltaY) < (r * r);
+    }
+    // Finds the pairs of masks that might touch, so the narrow phase doesn't have to check every pair. Masks are given by their row in Masks
+    private interface BroadPhase {
+	void insert(int i);
+	void delete(int i);
+	// The mask in row from is now in row to
+	void moved(int from, int to);
+	// Called once per frame after the boxes of the masks were worked out
+	void update();
+	// The box of the mask in row i was worked out again after update(), because its Object moved before a search
+	void shifted(int i);
+	// The layers of the mask in row i changed
+	void layered(int i);
+	// How many masks pairs() can start from
+	int size();
+	// Add the pairs of rows whose boxes might touch and whose layers accept each other to pairs (two ints per pair), each pair once over the whole range. 
+	// Only the pairs found from the masks from (inclusive) to to (exclusive) are added, so the work can be split. It must not change anything, scratch is for temporary use
+	void pairs(Ints pairs, Ints scratch, int from, int to);
+	// Add the rows of every mask that might touch the box to found
+	void retrieve(Ints found, double x, double y, double w, double h);
+    }
+    // Every collision mask of the Game Space and the broad phase that is used to find pairs among them
+    private class Collisions {
+	private Masks masks;
+	private BroadPhase broad;
+	ArrayList<CollisionMask> objects_a, objects_r;
+	// Pairs are found and checked in batches, one per worker when running in parallel. The batches are always 
+	// delivered in their order, so the collision() calls happen in the same order no matter how many threads there are
+	private ArrayList<Batch> batches;
+	// Pairs checked by the narrow phase in the last frame, in total and for each of the 32 layers
+	private int pairs; private int[] layer_pairs = new int[32];
+	Collisions(int room_width, int room_height, String broadphase) {
+	    masks = new Masks(); batches = new ArrayList<>(); batches.add(new Batch());
+	    objects_a = new ArrayList<>(); objects_r = new ArrayList<>();
+	    if("sweep".equals(broadphase)) broad = new SweepAndPrune(masks, room_width >= room_height);
+	    else broad = new Quadtree(masks, new Rectangle(room_width, room_height));
 	}
+	// The masks are let go of along with the Game Space, so they can be added to the next one
 	private void clear() {
-	    objects.clear(); objects_a.clear(); objects_r.clear();
-	    for (int i = 0; i < nodes.length; i++) {
-		if (nodes[i] != null) nodes[i].clear();
-		nodes[i] = null;
+	    objects_a.clear(); objects_r.clear();
+	    for(int i = 0; i < masks.count; i++) { CollisionMask m = masks.mask[i]; m.index = -1; m.owner_slot = -1; if(m.o != null) m.o.masks = null; }
+	}
+	public void remove(CollisionMask m) { objects_r.add(m); }
+	public void add(CollisionMask m) { objects_a.add(m); }
+	public Ints retrieve(Ints found, double x, double y, double w, double h) { broad.retrieve(found, x, y, w, h); return found; }
+	// Objects move after the masks were placed in the frame, in their collision() and update(). The objects whose code ran since the 
+	// last search are kept, and only their masks are placed again before the next one (an object moved by another object's code is 
+	// found where it was until it runs itself, or until the next frame)
+	private ArrayList<JGameEngine.Object> ran = new ArrayList<>();
+	private void ran(JGameEngine.Object o) { if(o != null && o.masks != null && !o.masks.isEmpty()) ran.add(o); }
+	private void refresh() {
+	    ran(loop.updating);
+	    for(int k = 0; k < ran.size(); k++) {
+		ArrayList<CollisionMask> list = ran.get(k).masks;
+		for(int l = 0; l < list.size(); l++) {
+		    int i = list.get(l).index;
+		    if(masks.moved(i)) { masks.bounds(i); broad.shifted(i); }
+		}
 	    }
+	    ran.clear();
 	}
-	private void split() {
-	    int subWidth = (int)(bounds.getWidth() / 2), subHeight = (int)(bounds.getHeight() / 2);
-	    int x = (int) bounds.getX(), y = (int) bounds.getY();
-
-	    nodes[0] = new Quadtree(level+1, new Rectangle(x + subWidth, y, subWidth, subHeight));
-	    nodes[1] = new Quadtree(level+1, new Rectangle(x, y, subWidth, subHeight));
-	    nodes[2] = new Quadtree(level+1, new Rectangle(x, y + subHeight, subWidth, subHeight));
-	    nodes[3] = new Quadtree(level+1, new Rectangle(x + subWidth, y + subHeight, subWidth, subHeight));
+	public void runCollisions() {
+	    ran.clear();
+	    for(int i = 0; i < objects_a.size(); i++) {
+		CollisionMask m = objects_a.get(i);
+		if(m.index == -1) broad.insert(masks.add(m));
+	    }
+	    objects_a.clear();
+	    for(int i = 0; i < objects_r.size(); i++) {
+		CollisionMask m = objects_r.get(i);
+		if(m.index == -1) continue;
+		int row = m.index;
+		broad.delete(row);
+		int last = masks.remove(row);
+		if(last != row) broad.moved(last, row);
+	    }
+	    objects_r.clear();
+	    masks.bounds();
+	    broad.update();
+	    int size = broad.size(), count = 1;
+	    if(collisionParallel && size >= 256) {
+		ForkJoinPool pool = workers();
+		count = Math.min(pool.getParallelism() * 4, size / 64);
+		while(batches.size() < count) batches.add(new Batch());
+	    }
+	    for(int b = 0; b < count; b++) { Batch batch = batches.get(b); batch.reinitialize(); batch.from = (int) ((long) size * b / count); batch.to = (int) ((long) size * (b + 1) / count); }
+	    if(count == 1) batches.get(0).compute();
+	    else { final List<Batch> run = batches.subList(0, count); workers().invoke(new RecursiveAction() { @Override protected void compute() { invokeAll(run); } }); }
+	    // Back on the game thread, let the objects know
+	    pairs = 0; Arrays.fill(layer_pairs, 0);
+	    for(int b = 0; b < count; b++) {
+		Batch batch = batches.get(b);
+		pairs += batch.pairs.size / 2;
+		for(int l = 0; l < 32; l++) layer_pairs[l] += batch.layer_pairs[l];
+		Ints hits = batch.hits;
+		for (int k = 0; k < hits.size; k += 2) {
+		    int i = hits.data[k], j = hits.data[k + 1];
+		    if(masks.mask[i].c != null) { masks.mask[i].c.collision(masks.owner[j]); ran(masks.owner[i]); }
+		    if(masks.mask[j].c != null) { masks.mask[j].c.collision(masks.owner[i]); ran(masks.owner[j]); }
+		}
+	    }
 	}
-	private int getIndex(Rectangle pRect) {
-	    int index = -1;
-	    double verticalMidpoint = bounds.getX() + (bounds.getWidth() / 2), horizontalMidpoint = bounds.getY() + (bounds.getHeight() / 2);
-	    // Object can completely fit within the top/bottom quadrants
-	    boolean topQuadrant = (pRect.getY() < horizontalMidpoint && pRect.getY() + pRect.getHeight() < horizontalMidpoint);
-	    boolean bottomQuadrant = (pRect.getY() > horizontalMidpoint);
-	    // Object can completely fit within the left/right quadrants
-	    if (pRect.getX() < verticalMidpoint && pRect.getX() + pRect.getWidth() < verticalMidpoint) {
-		if (topQuadrant)	 index = 1;
-		else if (bottomQuadrant) index = 2;
-	    }
-	    else if (pRect.getX() > verticalMidpoint) {
-		if (topQuadrant)	 index = 0;
-		else if (bottomQuadrant) index = 3;
-	    }
-	    return index;
-	}
-	private void insert(CollisionMask m) {
-	    if (nodes[0] != null) {
-		int index = getIndex(m.realBoundsRect());
-		if (index != -1) {
-		    nodes[index].insert(m); return;
+	// Finds the pairs from a range of the broad phase and keeps the ones that touch
+	private class Batch extends RecursiveAction {
+	    private static final long serialVersionUID = 1L;
+	    private int from, to;
+	    private Ints pairs = new Ints(), scratch = new Ints(), hits = new Ints();
+	    private int[] layer_pairs = new int[32];
+	    @Override protected void compute() {
+		pairs.clear(); hits.clear(); Arrays.fill(layer_pairs, 0);
+		broad.pairs(pairs, scratch, from, to);
+		for (int k = 0; k < pairs.size; k += 2) {
+		    int i = pairs.data[k], j = pairs.data[k + 1];
+		    for(int l = masks.layer[i] | masks.layer[j]; l != 0; l &= l - 1) layer_pairs[Integer.numberOfTrailingZeros(l)]++;
+		    if(masks.check(i, j)) { hits.add(i); hits.add(j); }
 		}
 	    }
-	    objects.add(m);
-	    if (objects.size() > MAX_OBJECTS && level < MAX_LEVELS) {
-		if (nodes[0] == null)
-		    split(); 
-		int i = 0;
-		while (i < objects.size()) {
-		    int index = getIndex(objects.get(i).realBoundsRect());
-		    if (index != -1) nodes[index].insert(objects.remove(i));
-		    else i++;
+	}
+    }
+    // A loose quadtree: the area of every node is stretched by half its size on each side, so a mask can always be kept in the 
+    // deepest node that contains its centre and is at least as big as it is. Masks never straddle nodes, only the nodes near 
+    // a box need to be searched, and a mask only has to be moved when its Object has moved since the last frame.
+    // Nodes at the edges of the Game Space stretch out forever, so masks outside of it are kept in the closest node.
+    // Nodes that are left without masks are dropped, and kept by the root to be used again when a node is needed
+    private class Quadtree implements BroadPhase {
+	private int MAX_LEVELS;
+	private int level;
+	private Masks masks;
+	// Only the root keeps which node each row is kept in, and the dropped nodes
+	private Quadtree[] node = new Quadtree[0];
+	private int[] node_index = new int[0];
+	private ArrayList<Quadtree> spare;
+	// Rows of the masks kept in this node
+	private Ints objects;
+	private double x, y, w, h;
+	private double left, top, right, bottom; // loose bounds
+	private int layers; // bits of the layers of every mask in this node and below, so searches can skip nodes without a layer they collide with
+	private Quadtree parent;
+	private int index; // which child of the parent it is
+	private Quadtree[] nodes;
+	public Quadtree(Masks masks, Rectangle pBounds) {
+	    this(0, pBounds.getX(), pBounds.getY(), pBounds.getWidth(), pBounds.getHeight(), 0);
+	    this.masks = masks; spare = new ArrayList<>();
+	    // Keep splitting until the nodes are 32 to 64 pixels wide
+	    while(MAX_LEVELS < 10 && Math.max(w, h) / (1 << MAX_LEVELS) > 64) MAX_LEVELS++;
+	}
+	private Quadtree(int pLevel, double x, double y, double w, double h, int max_levels) {
+	    objects = new Ints(); nodes = new Quadtree[4]; MAX_LEVELS = max_levels;
+	    set(pLevel, x, y, w, h);
+	}
+	private void set(int pLevel, double x, double y, double w, double h) {
+	    level = pLevel; layers = 0;
+	    this.x = x; this.y = y; this.w = w; this.h = h;
+	    left = top = Double.NEGATIVE_INFINITY; right = bottom = Double.POSITIVE_INFINITY;
+	}
+	// Create a child node of p, or use a dropped one again. Children are 0 top-left, 1 top-right, 2 bottom-left, 3 bottom-right
+	private Quadtree split(Quadtree p, int index) {
+	    double hw = p.w / 2, hh = p.h / 2, nx = p.x + (index % 2) * hw, ny = p.y + (index / 2) * hh;
+	    Quadtree n;
+	    if(spare.isEmpty()) { n = new Quadtree(p.level + 1, nx, ny, hw, hh, MAX_LEVELS); n.masks = masks; }
+	    else { n = spare.remove(spare.size() - 1); n.set(p.level + 1, nx, ny, hw, hh); }
+	    n.parent = p; n.index = index;
+	    if(index % 2 == 1 || p.left != Double.NEGATIVE_INFINITY) n.left = n.x - hw / 2;
+	    if(index % 2 == 0 || p.right != Double.POSITIVE_INFINITY) n.right = n.x + hw * 1.5;
+	    if(index / 2 == 1 || p.top != Double.NEGATIVE_INFINITY) n.top = n.y - hh / 2;
+	    if(index / 2 == 0 || p.bottom != Double.POSITIVE_INFINITY) n.bottom = n.y + hh * 1.5;
+	    return n;
+	}
+	// Find the node a box belongs to, creating nodes on the way if needed
+	private Quadtree place(double bx, double by, double bw, double bh) {
+	    double cx = Math.max(x, Math.min(x + w, bx + bw / 2)), cy = Math.max(y, Math.min(y + h, by + bh / 2));
+	    Quadtree node = this;
+	    while(node.level < MAX_LEVELS) {
+		double hw = node.w / 2, hh = node.h / 2;
+		if(bw > hw || bh > hh) break;
+		int index = (cx >= node.x + hw ? 1 : 0) + (cy >= node.y + hh ? 2 : 0);
+		if(node.nodes[index] == null) node.nodes[index] = split(node, index);
+		node = node.nodes[index];
+	    }
+	    return node;
+	}
+	@Override public void insert(int i) {
+	    if(i >= node.length) { node = Arrays.copyOf(node, masks.mask.length); node_index = Arrays.copyOf(node_index, masks.mask.length); }
+	    link(i, place(masks.bx[i], masks.by[i], masks.bw[i], masks.bh[i]));
+	}
+	@Override public void delete(int i) { unlink(i); }
+	@Override public void moved(int from, int to) {
+	    node[to] = node[from]; node_index[to] = node_index[from]; node[from] = null;
+	    node[to].objects.data[node_index[to]] = to;
+	}
+	// Move the masks whose Object moved out of their node
+	@Override public void update() {
+	    for(int i = 0; i < masks.count; i++) if(masks.moved(i)) shifted(i);
+	}
+	@Override public void shifted(int i) {
+	    Quadtree n = place(masks.bx[i], masks.by[i], masks.bw[i], masks.bh[i]);
+	    if(n != node[i]) { link(i, n); }
+	    else masks.placed(i);
+	}
+	@Override public void layered(int i) { node[i].relayer(); }
+	// Work out the layers of this node again, and of the nodes above it as long as they change
+	private void relayer() {
+	    for(Quadtree n = this; n != null; n = n.parent) {
+		int l = 0;
+		for(int i = 0; i < n.objects.size; i++) l |= masks.layer[n.objects.data[i]];
+		for(int i = 0; i < n.nodes.length; i++) if(n.nodes[i] != null) l |= n.nodes[i].layers;
+		if(l == n.layers) return;
+		n.layers = l;
+	    }
+	}
+	// Keep row i in node n (moving it there if it is kept somewhere else), the nodes above get its layers
+	private void link(int i, Quadtree n) {
+	    n.objects.add(i);
+	    if(node[i] != null) unlink(i);
+	    node[i] = n; node_index[i] = n.objects.size - 1;
+	    for(int l = masks.layer[i]; n != null && (n.layers | l) != n.layers; n = n.parent) n.layers |= l;
+	    masks.placed(i);
+	}
+	// Swap the last row of the node into the place of the removed one. Nodes that are left without masks and children are 
+	// dropped, and the layers of the ones above are worked out again
+	private void unlink(int i) {
+	    Quadtree n = node[i];
+	    Ints list = n.objects;
+	    int last = list.data[--list.size];
+	    if(last != i) { list.data[node_index[i]] = last; node_index[last] = node_index[i]; }
+	    node[i] = null;
+	    while(n.parent != null && n.objects.size == 0 && n.nodes[0] == null && n.nodes[1] == null && n.nodes[2] == null && n.nodes[3] == null) {
+		Quadtree p = n.parent;
+		p.nodes[n.index] = null; n.parent = null;
+		spare.add(n);
+		n = p;
+	    }
+	    n.relayer();
+	}
+	@Override public int size() { return masks.count; }
+	// Masks that touch each other are always found from both sides, so each pair is only kept from the side of the lower row
+	@Override public void pairs(Ints pairs, Ints retrieved, int from, int to) {
+	    for (int i = from; i < to; i++) {
+		retrieved.clear(); retrieve(retrieved, masks.bx[i], masks.by[i], masks.bw[i], masks.bh[i], masks.collides[i]);
+		for (int x = 0; x < retrieved.size; x++) {
+		    int j = retrieved.data[x];
+		    if(i < j && masks.accepts(i, j)) { pairs.add(i); pairs.add(j); }
 		}
 	    }
 	}
-	public ArrayList<CollisionMask> retrieve(ArrayList<CollisionMask> returnObjects, Rectangle pRect) {
-	    int index = getIndex(pRect);
-	    if (index != -1 && nodes[0] != null)
-		nodes[index].retrieve(returnObjects, pRect);
-	    returnObjects.addAll(objects);
-	    return returnObjects;
+	@Override public void retrieve(Ints returnObjects, double bx, double by, double bw, double bh) { retrieve(returnObjects, bx, by, bw, bh, -1); }
+	// Only finds the masks on the given layers, and only searches the nodes that have any (-1 finds every mask)
+	private void retrieve(Ints returnObjects, double bx, double by, double bw, double bh, int layers) {
+	    if(bx > right || bx + bw < left || by > bottom || by + bh < top) return;
+	    if(layers == -1) for(int i = 0; i < objects.size; i++) returnObjects.add(objects.data[i]);
+	    else if((this.layers & layers) == 0) return;
+	    else for(int i = 0; i < objects.size; i++) if((masks.layer[objects.data[i]] & layers) != 0) returnObjects.add(objects.data[i]);
+	    for(int i = 0; i < nodes.length; i++) 
+		if(nodes[i] != null) nodes[i].retrieve(returnObjects, bx, by, bw, bh, layers);
+	}
+    }
+    // Sort and sweep: the masks are kept sorted by where their box starts along one axis, then every mask only needs to be 
+    // compared with the masks that start before it ends. Masks barely move between frames so the order is kept with an insertion 
+    // sort, which is close to a single pass over an array that is already almost sorted. Good for levels that are long in one direction
+    private class SweepAndPrune implements BroadPhase {
+	private Masks masks;
+	private boolean along_x;
+	private int[] order = new int[0], position = new int[0]; // rows sorted by start, and where each row is in order
+	private int size;
+	private boolean deleted;
+	private double extent; // the longest any mask has been along the axis, so a search knows how far back masks can start and still reach it
+	SweepAndPrune(Masks masks, boolean along_x) { this.masks = masks; this.along_x = along_x; }
+	private double start(int i) { return along_x ? masks.bx[i] : masks.by[i]; }
+	private double end(int i) { return along_x ? masks.bx[i] + masks.bw[i] : masks.by[i] + masks.bh[i]; }
+	// Whether the boxes of two masks overlap on the other axis
+	private boolean across(int i, int j) {
+	    if(along_x) return masks.by[i] <= masks.by[j] + masks.bh[j] && masks.by[j] <= masks.by[i] + masks.bh[i];
+	    return masks.bx[i] <= masks.bx[j] + masks.bw[j] && masks.bx[j] <= masks.bx[i] + masks.bw[i];
+	}
+	@Override public void insert(int i) {
+	    if(size == order.length) order = Arrays.copyOf(order, Math.max(64, size * 2));
+	    if(i >= position.length) position = Arrays.copyOf(position, masks.mask.length);
+	    position[i] = size; order[size++] = i;
+	    extent = Math.max(extent, end(i) - start(i));
 	}
-	public void remake() {
-	    ArrayList<CollisionMask> tmp = new ArrayList<>(objects);
-	    clear();
-	    for(CollisionMask t : tmp) {
-		insert(t);
+	// Removed rows are only marked and left out the next time the order is updated
+	@Override public void delete(int i) { order[position[i]] = -1; deleted = true; }
+	@Override public void moved(int from, int to) { position[to] = position[from]; order[position[to]] = to; }
+	@Override public void update() {
+	    if(deleted) {
+		int n = 0;
+		for(int k = 0; k < size; k++) if(order[k] != -1) order[n++] = order[k];
+		size = n; deleted = false;
 	    }
+	    for(int k = 1; k < size; k++) {
+		int i = order[k]; double start = start(i);
+		int l = k - 1;
+		while(l >= 0 && start(order[l]) > start) { order[l + 1] = order[l]; l--; }
+		order[l + 1] = i;
+	    }
+	    for(int k = 0; k < size; k++) { position[order[k]] = k; masks.placed(order[k]); }
 	}
-	public void remove(CollisionMask m) { objects_r.add(m); }
-	public void add(CollisionMask m) { objects_a.add(m); }
-	public void runCollisions() {
-	    while(!objects_a.isEmpty()) { objects.add(objects_a.remove(0)); } while(!objects_r.isEmpty()) { objects.remove(objects_r.remove(0)); }
-	    ArrayList<CollisionMask> returnObjects = new ArrayList();
-	    for (int i = 0; i < objects.size(); i++) {
-		returnObjects.clear(); retrieve(returnObjects, objects.get(i).realBoundsRect());
-		for (int x = 0; x < returnObjects.size(); x++) {
-		    if(objects.get(i).check(objects.get(i).realBounds(), returnObjects.get(x).realBounds()) && objects.get(i) != returnObjects.get(x)) {
-			objects.get(i).c.collision(returnObjects.get(x).o);
-		    }
+	// Move the mask along the order until it's sorted again, the others stay where they are
+	@Override public void shifted(int i) {
+	    int k = position[i]; double start = start(i);
+	    while(k > 0 && start(order[k - 1]) > start) { order[k] = order[k - 1]; position[order[k]] = k; k--; }
+	    while(k < size - 1 && start(order[k + 1]) < start) { order[k] = order[k + 1]; position[order[k]] = k; k++; }
+	    order[k] = i; position[i] = k;
+	    masks.placed(i);
+	}
+	@Override public void layered(int i) { }
+	@Override public int size() { return size; }
+	@Override public void pairs(Ints pairs, Ints scratch, int from, int to) {
+	    for(int k = from; k < to; k++) {
+		int i = order[k]; double end = end(i);
+		for(int l = k + 1; l < size && start(order[l]) <= end; l++) {
+		    int j = order[l];
+		    if(masks.accepts(i, j) && across(i, j)) { pairs.add(Math.min(i, j)); pairs.add(Math.max(i, j)); }
 		}
 	    }
 	}
+	@Override public void retrieve(Ints found, double x, double y, double w, double h) {
+	    double start = along_x ? x : y, end = along_x ? x + w : y + h;
+	    // No mask that starts before the box less the longest mask can reach it, the search starts at the first one after that
+	    double from = start - extent;
+	    int lo = 0, hi = size;
+	    while(lo < hi) { int mid = (lo + hi) >>> 1; if(start(order[mid]) < from) lo = mid + 1; else hi = mid; }
+	    for(int k = lo; k < size && start(order[k]) <= end; k++) {
+		int i = order[k];
+		if(end(i) < start) continue;
+		if(along_x ? masks.by[i] <= y + h && y <= masks.by[i] + masks.bh[i] : masks.bx[i] <= x + w && x <= masks.bx[i] + masks.bw[i]) found.add(i);
+	    }
+	}
     }
     /** A CollisionMask is the area in which the Collision is effectively applied. A class that implements
      Collision can use the CollisionMaskAdd() method of JGameEngine to add a collision mask */
@@ -804,7 +2469,10 @@ public class JGameEngine {
 	private double x, y, w, h;
 	/** Object to which the collision mask is attached */
 	Object o = null; 
-	private Collision c = null;
+	private Collision c = null; // null for masks that only get touched, like the ones of a TileLayer
+	// Row of the mask in Masks, -1 while it isn't in the Game Space, and its place in the masks of its Object
+	private int index = -1, owner_slot = -1;
+	private int layer = 1, collides = -1;
 	private CollisionMask(Object obj, Collision col, double x, double y, double r) {
 	    o = obj; c = col; this.x = x; this.y = y; this.w = r; this.h = r; this.type = 1;
 	}
@@ -819,45 +2487,20 @@ public class JGameEngine {
 	public double getWidth() { return w; } 
 	/** Get the height of mask */
 	public double getHeight() { return h; }
+	/** Get the bits of the layers the mask is on */
+	public int getLayer() { return layer; }
+	/** Get the bits of the layers the mask collides with */
+	public int getCollides() { return collides; }
+	/** Put the mask on the layers with the given bits (1, 2, 4, 8...) and set the bits of the layers it collides with (-1 for all). Two 
+	 masks are only checked against each other if each of them collides with a layer of the other one */
+	public void setLayer(int layer, int collides) {
+	    this.layer = layer; this.collides = collides;
+	    if(index != -1) { collisions.masks.layer[index] = layer; collisions.masks.collides[index] = collides; collisions.broad.layered(index); }
+	}
 	/** Draw the collision mask for debugging purposes */
 	public void debug() {
-	    CollisionMask m = this.realBounds();
-	    if(m.type == 0) { drawRect(m.x, m.y, m.w, m.h); }
-	    else if(m.type == 1) { drawOval(m.x, m.y, m.w * 2, m.w * 2); }	    
-	}
-	private boolean check(CollisionMask c1, CollisionMask c2) {
-	    // https://developer.mozilla.org/en-US/docs/Games/Techniques/2D_collision_detection & https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection
-	    if(c1.type == 0 && c2.type == 0) {		
-		if (c1.x < c2.x + c2.w &&
-		    c1.x + c1.w > c2.x &&
-		    c1.y < c2.y + c2.h &&
-		    c1.y + c1.h > c2.y) return true;
-	    } else if(c1.type == 1 && c2.type == 1) {
-		double	dx = c1.x - c2.x + c1.w - c2.w,
-			dy = c1.y - c2.y + c1.w - c2.w;
-		double distance = Math.sqrt(dx * dx + dy * dy);
-		if (distance < c1.w + c2.w) return true;
-	    } else {
-		double c1x = c1.x, c1y = c1.y, c1w = c1.w, c1h = c1.h, 
-		       c2x = c2.x + c2.w, c2y = c2.y + c2.w, c2r = c2.w;
-		if(c1.type == 1) {
-		    c1x = c2.x; c1y = c2.y; c1w = c2.w; c1h = c2.h;
-		    c2x = c1.x + c1.w; c2y = c1.y + c1.w; c2r = c1.w; 
-		}
-		double	DeltaX = c2x - Math.max(c1x, Math.min(c2x, c1x + c1w)),
-			DeltaY = c2y - Math.max(c1y, Math.min(c2y, c1y + c1h));
-		return (DeltaX * DeltaX + DeltaY * DeltaY) < (c2r * c2r);
-	    }
-	    return false;
-	}
-	/** Get real bounds in rectangle form */
-	private Rectangle realBoundsRect() { CollisionMask tmp = realBounds(); return new Rectangle((int) tmp.x, (int) tmp.y, (int) tmp.w, (int) tmp.h); }
-	/** Get real bounds (relative to position of object) */
-	private CollisionMask realBounds() {
-	    if(o == null) return this;
-	    CollisionMask tmp = new CollisionMask(o, c, x, y, w, h); tmp.type = type;
-	    tmp.x += o.x; tmp.y += o.y;
-	    return tmp;
+	    if(type == 0) { drawRect(getX(), getY(), w, h); }
+	    else if(type == 1) { drawOval(getX(), getY(), w * 2, w * 2); }	    
 	}
     }
     /** Need to be implemented by Objects that need collisions, also see collisionMaskAdd() */
@@ -867,7 +2510,7 @@ public class JGameEngine {
 	CollisionMask m = null; 
 	if(Collision.class.isInstance(obj)) {
 	    m = new CollisionMask(obj, (Collision) obj, x, y, r);
-	    collisionTree.add(m);
+	    collisions.add(m); pooled(m);
 	} else {
 	    String err = "JGameEngine::CollisionMaskAdd() Trying to add a Collision Mask to an Object that doesn't implement Collsions. (Class "+obj.getClass().getName()+" must implement JGameEngine.Collision)"; try{ throw new Exception(err); }
 	    catch(Exception e) { System.out.println(err); }
@@ -879,42 +2522,74 @@ public class JGameEngine {
 	CollisionMask m = null; 
 	if(Collision.class.isInstance(obj)) {
 	    m = new CollisionMask(obj, (Collision) obj, x, y, w, h);
-	    collisionTree.add(m);
+	    collisions.add(m); pooled(m);
 	} else {
 	    String err = "JGameEngine::CollisionMaskAdd() Trying to add a Collision Mask to an Object that doesn't implement Collsions. (Class "+obj.getClass().getName()+" must implement JGameEngine.Collision)"; try{ throw new Exception(err); }
 	    catch(Exception e) { System.out.println(err); }
 	}
 	return m;
     }
-    /** Search through the list of all collision masks in the room to find masks that belong to the object */
+    /** Add a circular collision mask to Object on the layers with the given bits, that only collides with masks on the layers of the collides bits. See collisionMaskAdd() and CollisionMask.setLayer() */
+    CollisionMask collisionMaskAdd(Object obj, double x, double y, double r, int layer, int collides) {
+	CollisionMask m = collisionMaskAdd(obj, x, y, r);
+	if(m != null) m.setLayer(layer, collides);
+	return m;
+    }
+    /** Add a rectangular collision mask to Object on the layers with the given bits, that only collides with masks on the layers of the collides bits. See collisionMaskAdd() and CollisionMask.setLayer() */
+    CollisionMask collisionMaskAdd(Object obj, double x, double y, double w, double h, int layer, int collides) {
+	CollisionMask m = collisionMaskAdd(obj, x, y, w, h);
+	if(m != null) m.setLayer(layer, collides);
+	return m;
+    }
+    /** Get the collision masks in the room that belong to the object, and the ones added for it that are put in the room in the next cycle */
     List<CollisionMask> collisionMaskList(Object obj) {
 	ArrayList<CollisionMask> ret = new ArrayList<>();
-	for(int i = 0; i < collisionTree.objects.size(); i++) {
-	    if(collisionTree.objects.get(i).o == obj) ret.add(collisionTree.objects.get(i));
-	}
-	for(int i = 0; i < collisionTree.objects_a.size(); i++) {
-	    if(collisionTree.objects_a.get(i).o == obj) ret.add(collisionTree.objects_a.get(i));
+	if(obj.masks != null) ret.addAll(obj.masks);
+	for(int i = 0; i < collisions.objects_a.size(); i++) {
+	    if(collisions.objects_a.get(i).o == obj) ret.add(collisions.objects_a.get(i));
 	}
 	return ret;
     }
+    // Keep the mask of a pooled object with it, to be put back when the object is acquired again
+    private void pooled(CollisionMask m) {
+	if(m.o.pool == null) return;
+	if(m.o.pool_masks == null) m.o.pool_masks = new ArrayList<>();
+	m.o.pool_masks.add(m);
+    }
     /** Remove the collision mask */
     void collisionMaskRemove(CollisionMask m) {
-	collisionTree.remove(m);
+	if(m.o != null && m.o.pool_masks != null) m.o.pool_masks.remove(m);
+	collisions.remove(m);
     }
     /** Remove all of the collision mask of an object */
     void collisionMaskRemove(JGameEngine.Object o) {
 	ArrayList<CollisionMask> m = (ArrayList) collisionMaskList(o);
 	for(int i = 0; i < m.size(); i++)
-	    collisionTree.remove(m.get(i));
+	    collisions.remove(m.get(i));
+	if(o.pool_masks != null) o.pool_masks.clear();
     }
     /** Draw all collision masks */
     void collisionMaskDebug() {
-	for(int i = 0; i < collisionTree.objects.size(); i++) {
-	    CollisionMask m = collisionTree.objects.get(i).realBounds();
-	    if(m.type == 0) { drawRect(m.x, m.y, m.w, m.h); }
-	    else if(m.type == 1) { this.drawOval(m.x, m.y, m.w * 2, m.w * 2); }
+	for(int i = 0; i < collisions.masks.count; i++) {
+	    collisions.masks.mask[i].debug();
 	}
     }
+    /** Find and check collisions on all cores. collision() is still called on the game thread, in the same order as without it. Only helps with many masks */
+    void collisionParallel(boolean stance) { collisionParallel = stance; }
+    /** The number of mask pairs that were checked in the last frame (pairs filtered out by their layers are not checked) */
+    int collisionPairs() { return collisions.pairs; }
+    /** The number of mask pairs checked in the last frame that had a mask on the layer with the given bit (with more bits the count of each layer is added up) */
+    int collisionPairs(int layer) { int n = 0;
+	for(int l = layer; l != 0; l &= l - 1) n += collisions.layer_pairs[Integer.numberOfTrailingZeros(l)];
+	return n;
+    }
+    /** Test hook for the benchmarks module, not part of the engine's API: find and check the collisions of the Game Space right away, without the rest of a frame */
+    void collisionStep() { collisions.runCollisions(); }
+    /** Test hook for the benchmarks module, not part of the engine's API: check if two masks touch where they were in the last frame, as the narrow phase does, without calling collision(). Masks that weren't in a frame yet never touch */
+    boolean collisionCheck(CollisionMask a, CollisionMask b) {
+	if(a.index == -1 || b.index == -1) return false;
+	return collisions.masks.check(a.index, b.index);
+    }
     /** Get the list of objects that are collide to the given point */
     List<CollisionMask> collisionPointTest(double x, double y) {
 	return collisionBoxTest(x,y,1,1);
@@ -922,102 +2597,635 @@ public class JGameEngine {
     /** Get the list of objects that are collide to the given box */
     List<CollisionMask> collisionBoxTest(double x, double y, double w, double h) {
 	ArrayList<CollisionMask> m = new ArrayList<>();
-	collisionTree.retrieve(m, new Rectangle((int) x, (int) y, (int) w, (int) h));
-	CollisionMask tmp = new CollisionMask(null, null, x, y, w, h);
-	for (int i = 0; i < m.size(); i++) {
-	    if(!tmp.check(m.get(i).realBounds(), tmp)) {
-		m.remove(i); i--;
-	    }
+	// Objects may have moved since the frame started, so search where they are now. Parallel objects can't move the masks 
+	// while the others are searching as well, they find them where they were at the start of the frame
+	if(!loop.updating_parallel) collisions.refresh();
+	Ints found = collisions.retrieve(new Ints(), x, y, w, h);
+	for (int i = 0; i < found.size; i++) {
+	    int j = found.get(i);
+	    if(collisions.masks.check(j, x, y, w, h)) m.add(collisions.masks.mask[j]);
 	}
 	return m;
     }    
     //~~~~~~~~~~ Collisions End
     
-    //~~~~~~~~~~ Audio https://www.geeksforgeeks.org/play-audio-file-using-java/
-    private class Audio {
-	long current;
-	String status, file;
-	Clip clip;
-	Boolean loop;
-	Audio(String file, boolean loop) { this.file = file; this.loop = loop; makeStream(file, loop); }
-	Audio(String file, boolean loop, float gain) { this.file = file; this.loop = loop; makeStream(file, loop); setVolume(gain); }
-	void makeStream(String file, boolean loop) {
-	    AudioInputStream audioInputStream = null;
+    //~~~~~~~~~~ Audio
+    /** Where the mixer sends the sound it has mixed, see audioSink(). The sound is 16 bit signed little-endian stereo at 44100Hz */
+    public interface AudioSink {
+	/** Called on the mixer's thread before the first block is written */
+	public abstract void open(AudioFormat format) throws Exception;
+	/** Take the next block of sound. The mixer runs as fast as this lets it, so it should wait until there is room for the block (as a sound device does) */
+	public abstract void write(byte[] data, int length) throws Exception;
+	/** Called on the mixer's thread once another sink replaces this one */
+	public abstract void close();
+    }
+    // Plays the mixed sound on the default sound device
+    private static class LineSink implements AudioSink {
+	private SourceDataLine line;
+	@Override public void open(AudioFormat format) throws Exception { line = AudioSystem.getSourceDataLine(format); line.open(format, Mixer.LATENCY * 4); line.start(); }
+	@Override public void write(byte[] data, int length) { line.write(data, 0, length); }
+	@Override public void close() { line.stop(); line.close(); }
+    }
+    // Throws the mixed sound away as fast as it would have been heard, for when there is no sound device
+    private static class SilentSink implements AudioSink {
+	private long end; // nanoTime once everything written so far would have been heard
+	@Override public void open(AudioFormat format) { end = System.nanoTime(); }
+	@Override public void write(byte[] data, int length) throws InterruptedException {
+	    long now = System.nanoTime(), wait;
+	    end = Math.max(end, now) + length / 4 * 1000000000L / Mixer.RATE;
+	    if((wait = end - now - Mixer.LATENCY * 1000000000L / Mixer.RATE) > 0) Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+	}
+	@Override public void close() {}
+    }
+    // Reads a sound file as 16 bit stereo at the mixer's rate, a little at a time. Other rates are resampled linearly and mono is played on both sides
+    private static class Decoder implements AutoCloseable {
+	private final AudioInputStream in;
+	private final int channels;
+	private final double step; // frames of the file for each frame played
+	private final byte[] bytes;
+	private short[] src; // stereo frames of the file, from the one at pos on
+	private int count;
+	private double pos;
+	Decoder(String path) throws Exception {
+	    AudioInputStream file = AudioSystem.getAudioInputStream(new File(path).getAbsoluteFile());
+	    AudioFormat f = file.getFormat();
+	    try { in = AudioSystem.getAudioInputStream(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, f.getSampleRate(), 16, f.getChannels(), f.getChannels() * 2, f.getSampleRate(), false), file); }
+	    catch(Exception e) { file.close(); throw e; }
+	    channels = f.getChannels();
+	    step = f.getSampleRate() / Mixer.RATE;
+	    bytes = new byte[Mixer.BLOCK * channels * 2];
+	    src = new short[Mixer.BLOCK * 2 + 2];
+	}
+	// Fill out with up to the given number of frames from frame offset on, returns how many there were (fewer only at the end of the file)
+	int read(short[] out, int offset, int frames) throws IOException {
+	    int n = 0;
+	    while(n < frames) {
+		int i = (int) pos, a = i * 2, o = (offset + n) * 2;
+		if(i + 1 >= count) { if(fill()) continue; break; }
+		float f = (float) (pos - i);
+		out[o] = (short) (src[a] + (src[a + 2] - src[a]) * f);
+		out[o + 1] = (short) (src[a + 1] + (src[a + 3] - src[a + 1]) * f);
+		pos += step; n++;
+	    }
+	    return n;
+	}
+	// Keep the frames from pos on and read more after them, false at the end of the file
+	private boolean fill() throws IOException {
+	    int i = Math.min((int) pos, count), keep = count - i, r = in.read(bytes, 0, bytes.length);
+	    System.arraycopy(src, i * 2, src, 0, keep * 2);
+	    pos -= i; count = keep;
+	    if(r <= 0) return false;
+	    int frames = r / (channels * 2);
+	    if((count + frames) * 2 > src.length) src = Arrays.copyOf(src, (count + frames) * 2);
+	    for(int j = 0, b = 0, d = count * 2; j < frames; j++, b += channels * 2, d += 2) {
+		src[d] = (short) ((bytes[b] & 0xff) | bytes[b + 1] << 8);
+		src[d + 1] = channels > 1 ? (short) ((bytes[b + 2] & 0xff) | bytes[b + 3] << 8) : src[d];
+	    }
+	    count += frames;
+	    return true;
+	}
+	// Move ahead the given number of frames without decoding them
+	void skip(long frames) throws IOException {
+	    long bytes = (long) (frames * step) * channels * 2, n;
+	    while(bytes > 0 && (n = in.skip(bytes)) > 0) bytes -= n;
+	}
+	@Override public void close() throws IOException { in.close(); }
+    }
+    // Plays a long sound straight from the disk. The loader threads decode it a little ahead of the mixer into a ring of a fixed size, 
+    // so the memory it takes doesn't depend on how long it is
+    private static class Stream {
+	private static final int SIZE = 1 << 16; // frames held, about 1.5s
+	private final String path;
+	private final boolean loop;
+	private final ExecutorService reader;
+	private final short[] ring = new short[SIZE * 2];
+	private final AtomicBoolean filling = new AtomicBoolean();
+	private Decoder decoder; // only touched by the task filling the ring
+	private volatile long written, read; // frames the reader has ever written and the mixer has read
+	private volatile long seek = -1; // frame to move to, the mixer waits until the reader has
+	private volatile boolean ended, closed;
+	Stream(String path, boolean loop, ExecutorService reader) { this.path = path; this.loop = loop; this.reader = reader; }
+	void seek(long frame) { seek = Math.max(0, frame); fill(); }
+	void close() { closed = true; fill(); }
+	// Start filling the ring on a reader unless that is already happening
+	void fill() { if(filling.compareAndSet(false, true)) reader.execute(this::read); }
+	private void read() {
 	    try {
-		audioInputStream = AudioSystem.getAudioInputStream(new File(file).getAbsoluteFile());
-		clip = AudioSystem.getClip(); 
-	        clip.open(audioInputStream);     
+		if(closed) { if(decoder != null) decoder.close(); decoder = null; return; }
+		if(seek >= 0) {
+		    if(decoder != null) decoder.close();
+		    decoder = new Decoder(path); decoder.skip(seek);
+		    read = written; ended = false; seek = -1;
+		}
+		if(decoder == null) decoder = new Decoder(path);
+		boolean fresh = false; // nothing was read since the file was opened again
+		while(!closed && !ended && seek < 0 && written - read < SIZE) {
+		    int at = (int) (written % SIZE), n = decoder.read(ring, at, (int) Math.min(SIZE - (written - read), SIZE - at));
+		    if(n > 0) { written += n; fresh = false; }
+		    else if(loop && !fresh) { decoder.close(); decoder = new Decoder(path); fresh = true; }
+		    else ended = true;
+		}
 	    } catch(Exception e) {
-		System.out.println("JGameEngine::Audio Sound clip (" + file + ") doesn't exist or line unavailable. details: " + e.toString());
-	    }
-	    if(loop)
-		clip.loop(Clip.LOOP_CONTINUOUSLY); 
-	    else 
-		clip.start();
-	    status = "playing";
-	}
-	private void play(float gain) {
-	    if(status.equals("none")) {
-		clip.start();
-		status = "playing";
-	    } else if(status.equals("paused")) {
-		clip.close(); 
-		makeStream(file, loop); 
-		clip.setMicrosecondPosition(current); 
-		this.play(gain); 
-	    }
-	    if(gain != -1) setVolume(gain);
-	}
-	private void setVolume(float gain) {
-	    FloatControl gainControl = (FloatControl) clip.getControl(FloatControl.Type.MASTER_GAIN);
-	    float dB = (float) (Math.log(gain) / Math.log(10.0) * 20.0);
-	    gainControl.setValue(dB);
-	}
-	private void pause() {
-	    if(status.equals("none") || status.equals("paused")) return;
-	    clip.stop();
-	    current = clip.getMicrosecondPosition();
-	    status = "paused";
-	}
-	public void stop() { 
-	    clip.stop(); 
-	    clip.close(); 
-        } 
-    }
-    private class Audios {
-	ArrayList<Audio> audios;
-	public Audios() { audios = new ArrayList<>(); }
-	void add(String path, Boolean loop, float gain) { 
-	    // remove inactive instances of this audio clip
-	    for(int i = 0; i < audios.size(); i++) 
-		if(audios.get(i).file.equalsIgnoreCase(path)) 
-		    if(!audios.get(i).clip.isRunning() && !audios.get(i).status.equals("paused")) { audios.remove(i); i--; }
-	    audios.add(new Audio(path, loop, gain));    
-	}
-	Audio find(String path) { 
-	    for(int i = 0; i < audios.size(); i++) if(audios.get(i).file.equalsIgnoreCase(path)) return audios.get(i);
-	    return null;
-	}
-	void remove(String path) { Audio found = find(path); if(found != null) { found.stop(); audios.remove(found); } }
-	void removeAll(String path) { 
-	    Audio found = null; 
-	    do { found = find(path); if(found != null) { found.stop(); audios.remove(found); }
-	    } while(found != null);
-	}
-    }
-    /** Play a new audio */
-    void audioPlay(String path, boolean loop, float gain) { audios.add(path, loop, gain); }
-    /** Check if given audio is playing (not paused and haven't ended playback) */
-    Boolean audioPlaying(String path) { Audio found = audios.find(path); if(found != null && found.status.equals("playing")) return found.clip.isRunning(); return false; }
-    /** Pause an already playing audio */
-    void audioPause(String path) { Audio found = audios.find(path); if(found != null) found.pause(); }
-    /** Resume an already playing audio */
-    void audioResume(String path) { Audio found = audios.find(path); if(found != null) found.play(-1); }
-    /** Remove an audio */
-    void audioRemove(String path) { audios.remove(path);}
+		System.out.println("JGameEngine::Audio Sound (" + path + ") can't be streamed. details: " + e.toString());
+		ended = true;
+	    } finally {
+		filling.set(false);
+	    }
+	    if(closed ? decoder != null : seek >= 0 || !ended && written - read < SIZE / 2) fill();
+	}
+    }
+    // A sound being played, the handle of a voice is its generation (how many sounds it has played) and its index
+    private static class Voice {
+	String path;
+	Sound sound; // or the stream it plays
+	Stream stream;
+	int position, generation;
+	float gain, target, step; // the gain moves by step each frame until it reaches target
+	boolean loop, paused, active, fading; // fading is stopped once it's silent
+	long started;
+    }
+    // Adds up every sound that's playing on its own thread, so nothing about sound has to wait on the game loop (or the game loop on it). 
+    // Sounds are played on a fixed number of voices, one started while they're all busy takes the voice that has been playing the longest and isn't looping
+    private static class Mixer implements Runnable {
+	private static final int RATE = 44100;
+	private static final int BLOCK = 512; // frames mixed at once, about 12ms
+	private static final int LATENCY = BLOCK * 4; // frames a sink holds before it's heard
+	private static final int VOICES = 32;
+	private static final AudioFormat FORMAT = new AudioFormat(RATE, 16, 2, true, false);
+	private final Voice[] voices = new Voice[VOICES];
+	private final int[] mix = new int[BLOCK * 2];
+	private final byte[] out = new byte[BLOCK * 4];
+	private AudioSink sink; // null for the sound device
+	private boolean changed; // sink was set and the thread hasn't opened it yet
+	private Thread thread;
+	private long played;
+	Mixer() { for(int i = 0; i < VOICES; i++) voices[i] = new Voice(); }
+	synchronized int play(String path, Sound sound, Stream stream, boolean loop, float gain) {
+	    int index = -1;
+	    for(int i = 0; i < VOICES && index < 0; i++) if(!voices[i].active) index = i;
+	    for(int i = 0; i < VOICES; i++) if(index < 0 || voices[index].active && !voices[i].loop && (voices[index].loop || voices[i].started < voices[index].started)) index = i;
+	    Voice v = voices[index];
+	    if(v.active && v.loop) { if(stream != null) stream.close(); return -1; }
+	    end(v);
+	    v.path = path; v.sound = sound; v.stream = stream; v.position = 0; v.gain = v.target = gain; v.loop = loop; v.paused = v.fading = false; v.active = true; v.started = ++played; 
+	    v.generation = (v.generation + 1) & 0xffffff;
+	    start(); notify();
+	    return v.generation * VOICES + index;
+	}
+	private Voice voice(int handle) { 
+	    Voice v = handle < 0 ? null : voices[handle % VOICES];
+	    return v != null && v.active && v.generation == handle / VOICES ? v : null;
+	}
+	synchronized boolean playing(int handle) { Voice v = voice(handle); return v != null && !v.paused; }
+	synchronized void pause(int handle, boolean paused) { Voice v = voice(handle); if(v != null) { v.paused = paused; notify(); } }
+	synchronized void gain(int handle, float gain) { Voice v = voice(handle); if(v != null) v.gain = v.target = gain; }
+	synchronized void fade(int handle, float gain, double seconds, boolean stop) { 
+	    Voice v = voice(handle); 
+	    if(v == null) return;
+	    v.target = gain; v.step = (float) ((gain - v.gain) / Math.max(1, seconds * RATE)); v.fading = stop;
+	    if(v.step == 0) v.gain = gain;
+	}
+	synchronized void seek(int handle, double seconds) {
+	    Voice v = voice(handle);
+	    if(v == null) return;
+	    long frame = (long) (Math.max(0, seconds) * RATE);
+	    if(v.stream != null) v.stream.seek(frame); else v.position = (int) Math.min(frame, v.sound.frames);
+	}
+	synchronized void stop(int handle) { Voice v = voice(handle); if(v != null) end(v); }
+	synchronized boolean playing(String path) { 
+	    for(Voice v : voices) if(v.active && !v.paused && v.path.equalsIgnoreCase(path)) return true;
+	    return false;
+	}
+	synchronized void pause(String path, boolean paused) { for(Voice v : voices) if(v.active && v.path.equalsIgnoreCase(path)) v.paused = paused; notify(); }
+	synchronized void stop(String path) { for(Voice v : voices) if(v.active && v.path.equalsIgnoreCase(path)) end(v); }
+	private void end(Voice v) {
+	    if(v.stream != null) v.stream.close();
+	    v.active = false; v.sound = null; v.stream = null;
+	}
+	synchronized void sink(AudioSink sink) { this.sink = sink; changed = true; start(); notify(); }
+	private void start() {
+	    if(thread != null) return;
+	    thread = new Thread(this, "JGameEngine mixer"); thread.setDaemon(true); thread.start();
+	}
+	@Override public void run() {
+	    AudioSink current = null;
+	    while(true) {
+		AudioSink next = null;
+		synchronized(this) {
+		    while(!changed && !busy()) try { wait(); } catch(InterruptedException e) { return; }
+		    if(changed || current == null) { next = sink != null ? sink : new LineSink(); changed = false; }
+		    else mix();
+		}
+		try {
+		    if(next == null) current.write(out, out.length);
+		    else { if(current != null) current.close(); (current = next).open(FORMAT); }
+		} catch(Exception e) {
+		    System.out.println("JGameEngine::Audio Sound can't be played, it's mixed without being heard. details: " + e.toString());
+		    SilentSink silent = new SilentSink(); silent.open(FORMAT); current = silent;
+		}
+	    }
+	}
+	private boolean busy() {
+	    for(Voice v : voices) if(v.active && !v.paused) return true;
+	    return false;
+	}
+	// Add up the next block of every voice that's playing into out
+	private void mix() {
+	    Arrays.fill(mix, 0);
+	    for(Voice v : voices) {
+		if(!v.active || v.paused) continue;
+		Stream stream = v.stream;
+		short[] pcm;
+		int frames, p; // frames that can be played from p on, streams play what the reader has got to (if it's behind the rest of the block is silent)
+		if(stream == null) { pcm = v.sound.pcm; frames = v.sound.frames; p = v.position; }
+		else if(stream.seek >= 0) continue;
+		else if((frames = (int) Math.min(BLOCK, stream.written - stream.read)) == 0 && stream.ended) { end(v); continue; }
+		else { pcm = stream.ring; p = (int) (stream.read % Stream.SIZE); frames += p; }
+		float gain = v.gain, target = v.target, step = v.step;
+		for(int j = 0; j < BLOCK * 2; j += 2, p++) {
+		    if(p >= frames) { 
+			if(stream != null) break;
+			if(v.loop && frames > 0) p = 0; else { end(v); break; } 
+		    }
+		    int q = stream != null ? p % Stream.SIZE : p;
+		    if(gain != target && ((gain += step) - target) * step >= 0) gain = target;
+		    mix[j] += pcm[q * 2] * gain; mix[j + 1] += pcm[q * 2 + 1] * gain;
+		}
+		v.gain = gain;
+		if(stream != null) { stream.read += p - stream.read % Stream.SIZE; if(stream.written - stream.read < Stream.SIZE / 2) stream.fill(); }
+		else v.position = p;
+		if(v.fading && gain == 0) end(v);
+	    }
+	    for(int j = 0; j < BLOCK * 2; j++) {
+		int s = Math.max(-32768, Math.min(32767, mix[j]));
+		out[j * 2] = (byte) s; out[j * 2 + 1] = (byte) (s >> 8);
+	    }
+	}
+    }
+    // The decoded sound of a file, read on this thread the first time if it wasn't preloaded
+    private Sound sound(String path) {
+	Sound sound = assets.sound(path);
+	if(sound != null) return sound;
+	long start = System.nanoTime();
+	try { sound = Sound.read(path); traced("read " + path, start); } 
+	catch(Exception e) { System.out.println("JGameEngine::Audio Sound clip (" + path + ") doesn't exist or can't be read. details: " + e.toString()); return null; }
+	synchronized(assets) { assets.sounds.put(path, sound); }
+	return sound;
+    }
+    /** Play a new audio, returns a handle for the functions that take one (-1 if it couldn't be played). The file is decoded into memory the first time 
+     it's played (see assetPreloadAudio()), after that starting it costs next to nothing. Up to 32 sounds play at once. gain scales the volume, 1 is as recorded */
+    int audioPlay(String path, boolean loop, float gain) { Sound sound = sound(path); return sound == null ? -1 : mixer.play(path, sound, null, loop, Math.max(0, gain)); }
+    /** Play a new audio once as it was recorded, returns its handle */
+    int audioPlay(String path) { return audioPlay(path, false, 1); }
+    /** Play a long audio (music) straight from the disk instead of decoding all of it first, returns its handle (-1 if there is no such file). 
+     It is read a little ahead on a background thread, so it takes the same memory however long it is */
+    int audioStream(String path, boolean loop, float gain) { 
+	if(!new File(path).isFile()) { System.out.println("JGameEngine::audioStream() Sound (" + path + ") doesn't exist"); return -1; }
+	Stream stream = new Stream(path, loop, loaders());
+	stream.fill();
+	return mixer.play(path, null, stream, loop, Math.max(0, gain)); 
+    }
+    /** Fade out the audio of a handle over the given seconds while another audio streams in to the given gain, returns the new audio's handle. 
+     The old one is removed once it's silent */
+    int audioCrossfade(int from, String path, boolean loop, float gain, double seconds) {
+	int to = audioStream(path, loop, 0);
+	mixer.fade(to, Math.max(0, gain), seconds, false); 
+	mixer.fade(from, 0, seconds, true);
+	return to;
+    }
+    /** Check if an audio of the given path is playing (not paused and haven't ended playback) */
+    Boolean audioPlaying(String path) { return mixer.playing(path); }
+    /** Check if the audio of a handle is playing (not paused and haven't ended playback) */
+    boolean audioPlaying(int handle) { return mixer.playing(handle); }
+    /** Pause every audio of the given path */
+    void audioPause(String path) { mixer.pause(path, true); }
+    /** Pause the audio of a handle, it carries on from the same place once resumed */
+    void audioPause(int handle) { mixer.pause(handle, true); }
+    /** Resume every paused audio of the given path */
+    void audioResume(String path) { mixer.pause(path, false); }
+    /** Resume the audio of a handle */
+    void audioResume(int handle) { mixer.pause(handle, false); }
+    /** Stop every audio of the given path. The decoded sound is kept for the next time it is played */
+    void audioRemove(String path) { mixer.stop(path); }
+    /** Stop the audio of a handle */
+    void audioRemove(int handle) { mixer.stop(handle); }
+    /** Change the volume of the audio of a handle while it plays, 1 is as recorded */
+    void audioGain(int handle, float gain) { mixer.gain(handle, Math.max(0, gain)); }
+    /** Change the volume of the audio of a handle smoothly over the given seconds */
+    void audioFade(int handle, float gain, double seconds) { mixer.fade(handle, Math.max(0, gain), seconds, false); }
+    /** Move the audio of a handle to the given seconds from its start. Paused audio stays paused and resumes from there */
+    void audioSeek(int handle, double seconds) { mixer.seek(handle, seconds); }
+    /** Send the mixed sound to a sink instead of the sound device, to record it or to check it in a test. null goes back to the sound device. 
+     When there is no sound device the sound is mixed (at the speed it would have been heard) and thrown away */
+    void audioSink(AudioSink sink) { mixer.sink(sink); }
     //~~~~~~~~~~ Audio End 
     
+    //~~~~~~~~~~ Profiling
+    /** What the profiler publishes over JMX as JGameEngine:type=Profiler, see profilerEnable(). Times are in milliseconds and cover the last 
+     complete 5 seconds */
+    public interface ProfilerMXBean {
+	/** The phases of a frame: frame (all of the others), queues, collisions, updates, render (of the objects), sprites and present */
+	public abstract String[] getPhases();
+	/** A line for each phase with the 50th and 99th percentile and the longest it took */
+	public abstract String[] getSummary();
+	/** The number of frames */
+	public abstract long getFrames();
+	/** The most objects that were in the Game Space in a frame */
+	public abstract int getObjects();
+	/** The most sprites that were drawn in a frame */
+	public abstract int getSprites();
+	/** The most collision masks that were in the Game Space in a frame */
+	public abstract int getMasks();
+	/** The most pairs of collision masks that were checked in a frame */
+	public abstract int getPairs();
+	/** The objects whose update() took the longest, timed every 16th frame. Parallel objects are only timed all together */
+	public abstract String[] getSlowestObjects();
+	/** The time a phase took in the given percentile (0 to 100) of the frames, -1 for a phase that doesn't exist */
+	public abstract double percentile(String phase, double percentile);
+    }
+    // Counts of times in buckets 1/16th of a power of two of microseconds wide (like an HdrHistogram with 1 digit), so every percentile 
+    // is within about 6% of the real one and adding a time is a few instructions
+    private static class Histogram {
+	private static final int BUCKETS = 40 * 16;
+	private final long[] counts = new long[BUCKETS];
+	private long count, max;
+	void add(long ns) { 
+	    long us = Math.max(0, ns >> 10);
+	    int e = 63 - Long.numberOfLeadingZeros(us);
+	    counts[us < 16 ? (int) us : Math.min(BUCKETS - 1, (e - 3) * 16 + (int) ((us >> (e - 4)) & 15))]++;
+	    count++; max = Math.max(max, ns);
+	}
+	void set(Histogram h) { System.arraycopy(h.counts, 0, counts, 0, BUCKETS); count = h.count; max = h.max; }
+	void clear() { Arrays.fill(counts, 0); count = 0; max = 0; }
+	// In milliseconds, the top of the bucket the percentile falls in
+	double percentile(double percentile) {
+	    long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count), seen = 0;
+	    for(int b = 0; b < BUCKETS; b++) 
+		if((seen += counts[b]) >= rank && counts[b] > 0) return Math.min(max / 1e6, (b < 16 ? b + 1 : (long) (17 + b % 16) << (b / 16 - 1)) * 1.024 / 1000);
+	    return max / 1e6;
+	}
+    }
+    // Times the phases of every frame with System.nanoTime() and keeps them in histograms, see profilerEnable(). Only the game thread 
+    // writes to the window being filled, it is copied over to the one that's shown every 5 seconds
+    private class Profiler implements ProfilerMXBean {
+	private static final int FRAME = 0, QUEUES = 1, COLLISIONS = 2, UPDATES = 3, RENDER = 4, SPRITES = 5, PRESENT = 6, IDLE = 7;
+	private static final long WINDOW = 5000000000L;
+	private static final Color SHADE = new Color(0, 0, 0, 160); // behind the overlay's text
+	private final String[] phases = { "frame", "queues", "collisions", "updates", "render", "sprites", "present" };
+	private final Histogram[] filling = new Histogram[7], shown = new Histogram[7];
+	private final long[] took = new long[8]; // nanoseconds spent in each phase this frame
+	private final JGameEngine.Object[] slowest = new JGameEngine.Object[5];
+	private final long[] slowest_took = new long[5];
+	private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+	private long mark, window, frames, shown_frames;
+	private boolean sampling; // every object's update() is timed this frame
+	private int objects, sprites, masks, pairs, drawn;
+	private int[] shown_counts = new int[4];
+	private String[] summary = new String[0], slow = new String[0];
+	private volatile boolean overlay;
+	private ObjectName name;
+	Profiler() { for(int i = 0; i < 7; i++) { filling[i] = new Histogram(); shown[i] = new Histogram(); } window = System.nanoTime(); }
+	private void begin(long t) { mark = t; Arrays.fill(took, 0); sampling = (frames & 15) == 0; drawn = 0; }
+	// The time since the last mark was spent in the given phase
+	private void mark(int phase, long t) { took[phase] += t - mark; mark = t; }
+	private void object(JGameEngine.Object o, long ns) {
+	    int at = -1;
+	    for(int i = 0; i < slowest.length && at < 0; i++) if(slowest[i] == o) at = i;
+	    if(at < 0) { at = slowest.length - 1; if(ns <= slowest_took[at]) return; slowest[at] = o; slowest_took[at] = ns; }
+	    else slowest_took[at] = Math.max(slowest_took[at], ns);
+	    for(; at > 0 && slowest_took[at] > slowest_took[at - 1]; at--) {
+		JGameEngine.Object t = slowest[at]; slowest[at] = slowest[at - 1]; slowest[at - 1] = t;
+		long n = slowest_took[at]; slowest_took[at] = slowest_took[at - 1]; slowest_took[at - 1] = n;
+	    }
+	}
+	private void end() {
+	    long frame = 0;
+	    for(int i = 1; i < 7; i++) { filling[i].add(took[i]); frame += took[i]; }
+	    filling[FRAME].add(frame);
+	    objects = Math.max(objects, loop.objects.count); sprites = Math.max(sprites, drawn);
+	    if(collisions != null) { masks = Math.max(masks, collisions.masks.count); pairs = Math.max(pairs, collisions.pairs); }
+	    frames++;
+	    if(mark - window >= WINDOW) publish();
+	}
+	private synchronized void publish() {
+	    window = mark; shown_frames = frames; frames = 0;
+	    for(int i = 0; i < 7; i++) { shown[i].set(filling[i]); filling[i].clear(); }
+	    shown_counts = new int[] { objects, sprites, masks, pairs }; objects = sprites = masks = pairs = 0;
+	    summary = new String[7];
+	    for(int i = 0; i < 7; i++) summary[i] = String.format("%-10s p50 %6.2f  p99 %6.2f  max %6.2f ms", phases[i], shown[i].percentile(50), shown[i].percentile(99), shown[i].max / 1e6);
+	    int n = 0;
+	    while(n < slowest.length && slowest[n] != null) n++;
+	    slow = new String[n];
+	    for(int i = 0; i < n; i++) slow[i] = String.format("%s \"%s\" %.3fms", slowest[i].getClass().getSimpleName(), slowest[i].name, slowest_took[i] / 1e6);
+	    Arrays.fill(slowest, null); Arrays.fill(slowest_took, 0);
+	}
+	// The summary to write on screen, a new array every time it changes
+	private synchronized String[] lines() { return summary; }
+	// The box the summary is written in
+	private void box(Graphics g, String[] lines, Rectangle r) {
+	    if(lines.length == 0) r.setBounds(0, 0, 0, 0);
+	    else r.setBounds(0, 0, g.getFontMetrics(font).stringWidth(lines[0]) + 8, lines.length * 13 + 6);
+	}
+	// Write the summary in the top left of the screen
+	private void draw(Graphics g, String[] lines) {
+	    if(lines.length == 0) return;
+	    int w = g.getFontMetrics(font).stringWidth(lines[0]) + 8, h = lines.length * 13 + 6;
+	    Color color = g.getColor(); Font f = g.getFont();
+	    g.setColor(SHADE); g.fillRect(0, 0, w, h);
+	    g.setColor(Color.WHITE); g.setFont(font);
+	    for(int i = 0; i < lines.length; i++) g.drawString(lines[i], 4, 13 * (i + 1));
+	    g.setColor(color); g.setFont(f);
+	}
+	private int phase(String name) { for(int i = 0; i < phases.length; i++) if(phases[i].equals(name)) return i; return -1; }
+	@Override public String[] getPhases() { return phases.clone(); }
+	@Override public synchronized String[] getSummary() { return summary.clone(); }
+	@Override public synchronized long getFrames() { return shown_frames; }
+	@Override public synchronized int getObjects() { return shown_counts[0]; }
+	@Override public synchronized int getSprites() { return shown_counts[1]; }
+	@Override public synchronized int getMasks() { return shown_counts[2]; }
+	@Override public synchronized int getPairs() { return shown_counts[3]; }
+	@Override public synchronized String[] getSlowestObjects() { return slow.clone(); }
+	@Override public synchronized double percentile(String phase, double percentile) { int i = phase(phase); return i < 0 ? -1 : shown[i].percentile(percentile); }
+    }
+    /** Time the phases of every frame (queues, collisions, updates, render, sprites and present), the objects, sprites, collision masks and pairs 
+     in it, and sometimes the update() of every object, and publish them over JMX as JGameEngine:type=Profiler (see ProfilerMXBean). It costs 
+     a few System.nanoTime() calls a frame, so it can be left on */
+    void profilerEnable(boolean stance) {
+	JGameEngine.Profiler p = profiler;
+	if(stance == (p != null)) return;
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    if(!stance) { profiler = null; if(p.name != null) server.unregisterMBean(p.name); return; }
+	    p = new JGameEngine.Profiler();
+	    for(int id = 1; p.name == null; id++) {
+		ObjectName name = new ObjectName("JGameEngine:type=Profiler" + (id > 1 ? ",id=" + id : ""));
+		if(!server.isRegistered(name)) { server.registerMBean(p, name); p.name = name; }
+	    }
+	} catch(Exception e) { System.out.println("JGameEngine::profilerEnable() The profiler can't be published over JMX. details: " + e.toString()); }
+	profiler = p;
+    }
+    /** Write what the profiler found (over the last 5 seconds) in the top left of the screen */
+    void profilerOverlay(boolean stance) { if(stance) profilerEnable(true); JGameEngine.Profiler p = profiler; if(p != null) p.overlay = stance; }
+    /** Get the time in milliseconds a phase of the frame took in the given percentile (0 to 100) of the frames of the last 5 seconds, 
+     -1 if the profiler isn't on or there is no such phase. Phases are frame (all of them), queues, collisions, updates, render, sprites and present */
+    double profilerPercentile(String phase, double percentile) { JGameEngine.Profiler p = profiler; return p == null ? -1 : p.percentile(phase, percentile); }
+    //~~~~~~~~~~ Profiling Ends
+    
+    //~~~~~~~~~~ Tracing
+    // Keeps the last events of the game in a ring: the phases of every frame, spans the game marks (traceBegin()), the start() of objects, 
+    // reads of images and sounds on the game thread, and garbage collections. They're written out as Chrome trace events, see traceRecord()
+    private class Trace implements NotificationListener {
+	private static final int SIZE = 1 << 16; // events kept, older ones are written over
+	private final char[] type = new char[SIZE]; // X for a span, B and E for the start and end of one from the game
+	private final long[] time = new long[SIZE], length = new long[SIZE], thread = new long[SIZE];
+	private final int[] name = new int[SIZE];
+	private final ArrayList<String> names = new ArrayList<>();
+	private final HashMap<java.lang.Object, Integer> ids = new HashMap<>();
+	private final HashMap<Long, String> threads = new HashMap<>();
+	private final long origin = System.nanoTime(); // 0 in the written trace
+	private final long jvm_start = origin - ManagementFactory.getRuntimeMXBean().getUptime() * 1000000L; // garbage collections are timed from it
+	private volatile long keep; // nanoseconds of events that are written out
+	private volatile long hitch = -1; // frames longer than this are written out to directory
+	private volatile String directory;
+	private int next, count;
+	private long frame, mark, idle, written; // the frame being run (only used on the game thread), when a hitch was last written (0 never)
+	Trace(double seconds) {
+	    for(String phase : new String[] { "frame", "queues", "collisions", "updates", "render", "sprites", "present", "idle" }) id(phase);
+	    threads.put(0L, "Garbage collector");
+	    keep(seconds);
+	    for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) 
+		if(gc instanceof NotificationEmitter) ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+	}
+	private void keep(double seconds) { keep = (long) (seconds * 1e9); }
+	private void stop() {
+	    for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) 
+		if(gc instanceof NotificationEmitter) try { ((NotificationEmitter) gc).removeNotificationListener(this); } catch(ListenerNotFoundException e) { }
+	}
+	// The number of a name, names are kept once and only written out by number. Classes are named after their start()
+	private synchronized int id(java.lang.Object what) {
+	    Integer id = ids.get(what);
+	    if(id != null) return id;
+	    String n = what instanceof Class ? ((Class<?>) what).getName() + ".start()" : what.toString();
+	    ids.put(what, names.size()); names.add(n);
+	    return names.size() - 1;
+	}
+	private synchronized void add(char type, int name, long thread, long time, long length) {
+	    int i = next;
+	    next = (next + 1) & (SIZE - 1); count = Math.min(count + 1, SIZE);
+	    this.type[i] = type; this.name[i] = name; this.thread[i] = thread; this.time[i] = time; this.length[i] = length;
+	}
+	// A span on the calling thread from start until now
+	private void span(java.lang.Object what, long start) { add('X', id(what), thread(), start, System.nanoTime() - start); }
+	private void span(char type, String what) { add(type, type == 'E' ? -1 : id(what), thread(), System.nanoTime(), 0); }
+	private long thread() {
+	    Thread t = Thread.currentThread();
+	    long id = t.getId();
+	    synchronized(this) { if(!threads.containsKey(id)) threads.put(id, t.getName()); }
+	    return id;
+	}
+	private void begin(long t) { frame = mark = t; idle = 0; }
+	private void mark(int phase, long t) {
+	    if(phase == Profiler.IDLE) idle += t - mark;
+	    else if(t > mark) add('X', phase, thread(), mark, t - mark);
+	    mark = t;
+	}
+	private void end() {
+	    add('X', Profiler.FRAME, thread(), frame, mark - frame);
+	    long h = hitch;
+	    if(h >= 0 && mark - frame - idle > h && (written == 0 || mark - written > keep) && directory != null) {
+		written = mark;
+		dump(new File(directory, "trace-" + System.currentTimeMillis() + ".json").getPath());
+	    }
+	}
+	@Override public void handleNotification(Notification n, java.lang.Object handback) {
+	    if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) return;
+	    GarbageCollectionNotificationInfo gc = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+	    add('X', id(gc.getGcName() + " (" + gc.getGcCause() + ")"), 0, jvm_start + gc.getGcInfo().getStartTime() * 1000000L, Math.max(1, gc.getGcInfo().getDuration()) * 1000000L);
+	}
+	// Copy the events of the last seconds kept (quick enough for the game thread) and write them out on a loader thread
+	private Future<?> dump(String path) {
+	    final int n; final char[] ty; final long[] ti, le, th; final int[] na; final ArrayList<String> nm; final HashMap<Long, String> ts;
+	    synchronized(this) {
+		long from = System.nanoTime() - keep;
+		int k = 0;
+		ty = new char[count]; ti = new long[count]; le = new long[count]; th = new long[count]; na = new int[count];
+		for(int j = 0, i = (next - count) & (SIZE - 1); j < count; j++, i = (i + 1) & (SIZE - 1)) {
+		    if(time[i] + length[i] < from) continue;
+		    ty[k] = type[i]; ti[k] = time[i]; le[k] = length[i]; th[k] = thread[i]; na[k] = name[i]; k++;
+		}
+		n = k; nm = new ArrayList<>(names); ts = new HashMap<>(threads);
+	    }
+	    return CompletableFuture.runAsync(() -> {
+		try(BufferedWriter w = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+		    w.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+		    for(Map.Entry<Long, String> t : ts.entrySet()) w.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + t.getKey() + ",\"args\":{\"name\":" + quote(t.getValue()) + "}},\n");
+		    for(int i = 0; i < n; i++) {
+			w.write("{\"ph\":\"" + ty[i] + "\",\"pid\":1,\"tid\":" + th[i] + ",\"ts\":" + micros(ti[i] - origin));
+			if(na[i] >= 0) w.write(",\"name\":" + quote(nm.get(na[i])));
+			if(ty[i] == 'X') w.write(",\"dur\":" + micros(le[i]));
+			w.write(i < n - 1 ? "},\n" : "}\n");
+		    }
+		    w.write("]}\n");
+		} catch(IOException e) { System.out.println("JGameEngine::traceDump() Trace can't be written to " + path + ". details: " + e.toString()); }
+	    }, loaders());
+	}
+	private String micros(long ns) { return (ns < 0 ? "-" : "") + Math.abs(ns) / 1000 + "." + String.format("%03d", Math.abs(ns) % 1000); }
+	private String quote(String s) {
+	    StringBuilder b = new StringBuilder("\"");
+	    for(int i = 0; i < s.length(); i++) {
+		char c = s.charAt(i);
+		if(c == '"' || c == '\\') b.append('\\').append(c);
+		else if(c < 0x20) b.append(String.format("\\u%04x", (int) c));
+		else b.append(c);
+	    }
+	    return b.append('"').toString();
+	}
+    }
+    // A span of the trace from start until now, if the trace recorder is on
+    private void traced(java.lang.Object what, long start) { JGameEngine.Trace t = trace; if(t != null) t.span(what, start); }
+    /** Record what happens in the game into a ring of events: the phases of every frame, spans marked with traceBegin() and traceEnd(), the start() 
+     of objects, reads of images and sounds on the game thread and garbage collections. The events of the last given seconds can be written out 
+     with traceDump() or traceHitch(). 0 seconds stops recording */
+    void traceRecord(double seconds) {
+	JGameEngine.Trace t = trace;
+	if(seconds <= 0) { trace = null; if(t != null) t.stop(); }
+	else if(t != null) t.keep(seconds);
+	else trace = new JGameEngine.Trace(seconds);
+    }
+    /** Write the recorded events out (see traceRecord()) to a file as Chrome trace events, that chrome://tracing and ui.perfetto.dev can show. 
+     It's written on another thread, the future is done once it has been */
+    Future<?> traceDump(String path) {
+	JGameEngine.Trace t = trace;
+	if(t == null) { System.out.println("JGameEngine::traceDump() Nothing is recorded, use traceRecord()"); return CompletableFuture.completedFuture(null); }
+	return t.dump(path);
+    }
+    /** Write the recorded events out (see traceDump()) to a new file in the directory whenever a frame takes longer than the given milliseconds, 
+     not counting sleeps. Only one file is written for the seconds recorded, the hitches after that are in it already. A negative time stops it */
+    void traceHitch(double milliseconds, String directory) { 
+	if(milliseconds >= 0) traceRecord(trace == null ? 10 : trace.keep / 1e9);
+	JGameEngine.Trace t = trace;
+	if(t != null) { t.directory = directory; t.hitch = milliseconds < 0 ? -1 : (long) (milliseconds * 1e6); }
+    }
+    /** Start a span of the recorded events on the calling thread, ended by traceEnd(). Spans can be inside each other */
+    void traceBegin(String name) { JGameEngine.Trace t = trace; if(t != null) t.span('B', name); }
+    /** End the span last started by traceBegin() on the calling thread */
+    void traceEnd() { JGameEngine.Trace t = trace; if(t != null) t.span('E', null); }
+    //~~~~~~~~~~ Tracing Ends
+    
     /** Make a colour from rgb value */	    public Color color(int r, int g, int b) { return new java.awt.Color(r, g, b); }
     /** Make a colour from rgba value */    public Color color(int r, int g, int b, int a) { return new java.awt.Color(r, g, b, a); }
-    /** Get the fps in the last update */   public double fps() { return 1 / (deltaTime / 10f); }
+    /** Get the fps in the last update */   public double fps() { return 1 / (frameTime / 10f); }
+    /** Get how many bytes a second the game loop allocated, measured over about the last second (-1 if it isn't known yet or the JVM can't tell). 
+     Everything allocated has to be cleaned up by the garbage collector later, which may stop the game while it does */
+    public double memoryAllocationRate() { return loop.allocation_rate; }
+    /** Get how many times the garbage collector has run since the game started */
+    public long memoryCollections() { long n = 0; for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount()); return n; }
+    /** Get how long (in milliseconds) the garbage collector has taken since the game started */
+    public long memoryCollectionTime() { long t = 0; for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) t += Math.max(0, gc.getCollectionTime()); return t; }
+    // Bytes the calling thread has allocated since it started, -1 if the JVM can't tell
+    private static long allocatedBytes() {
+	java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	if(!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+	return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
 }
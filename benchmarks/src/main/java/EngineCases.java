@@ -0,0 +1,283 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import jgameengine.benchmarks.Case;
+import jgameengine.benchmarks.Cases;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The cases of the benchmarks in jgameengine.benchmarks, in the default package so they can use the engine (see Cases).
+// Everything runs headless, so no display is needed
+public class EngineCases implements Cases {
+    @Override public Case runCollisions(String broadphase, int masks, String layout, boolean parallel) {
+	JGameEngine e = "level".equals(layout) ? space(masks, 40000, 600, broadphase) : space(masks, 4000, 2250, broadphase);
+	// Mostly bullets that only collide with the few other masks
+	if("layered".equals(layout)) for(int i = 0; i < e.objectCount(); i++) e.collisionMaskList(e.objectGet(i)).get(0).setLayer(i % 10 == 0 ? 1 : 2, i % 10 == 0 ? 2 : 1);
+	e.collisionParallel(parallel);
+	e.headlessStep(1);
+	return bh -> { e.collisionStep(); bh.consume(e.collisionPairs()); };
+    }
+    @Override public Case collisionCheck(String shapes) {
+	JGameEngine e = new JGameEngine();
+	e.setGameSpace(4000, 2250);
+	e.setHeadless(800, 450, false);
+	Idle a = new Idle(), b = new Idle(); b.x = 5; b.y = 5;
+	JGameEngine.CollisionMask ma = shapes.startsWith("circle") ? e.collisionMaskAdd(a, 0, 0, 8) : e.collisionMaskAdd(a, 0, 0, 16, 16);
+	JGameEngine.CollisionMask mb = shapes.endsWith("circle") ? e.collisionMaskAdd(b, 0, 0, 8) : e.collisionMaskAdd(b, 0, 0, 16, 16);
+	e.headlessStep(1);
+	return bh -> bh.consume(e.collisionCheck(ma, mb));
+    }
+    @Override public Case collisionBoxTest(String broadphase, int masks) {
+	JGameEngine e = space(masks, 4000, 2250, broadphase);
+	e.headlessStep(1);
+	return bh -> bh.consume(e.collisionBoxTest(400, 400, 200, 200));
+    }
+    @Override public Case sprite() {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless(800, 450, true);
+	String path = sheet(false).getPath();
+	JGameEngine.Sprite kept = e.sprite(path, 4, 32, 4, 32);
+	return bh -> { JGameEngine.Sprite s = e.sprite(path, 4, 32, 4, 32); e.spriteDispose(s); bh.consume(s); bh.consume(kept); };
+    }
+    @Override public Case objectsFind(int objects, boolean into) {
+	JGameEngine e = objects(objects);
+	if(!into) return bh -> bh.consume(e.objectsFind("Enemy3"));
+	ArrayList<JGameEngine.Object> found = new ArrayList<>();
+	return bh -> bh.consume(e.objectsFind("Enemy3", found));
+    }
+    @Override public Case objectList(int objects) {
+	JGameEngine e = objects(objects);
+	JGameEngine.Object one = e.objectsFind("Enemy9").get(0);
+	return bh -> bh.consume(e.objectList(one));
+    }
+    @Override public Case key(String name) {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless();
+	return bh -> bh.consume(e.key(name));
+    }
+    @Override public Case keyPressing(String name, boolean handle) {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless();
+	if(!handle) return bh -> bh.consume(e.keyPressing(name));
+	int key = e.key(name);
+	return bh -> bh.consume(e.keyPressing(key));
+    }
+    @Override public Case textSize() {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless();
+	e.headlessStep(1);
+	return bh -> { e.textSize(24); e.textSize(32); bh.consume(e); };
+    }
+    @Override public Case textFontSystem() {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless();
+	e.headlessStep(1);
+	return bh -> { e.textFontSystem("Serif", "bold", 20); bh.consume(e); };
+    }
+    @Override public Case audioPlay() {
+	String path = tone().getPath();
+	JGameEngine e = new JGameEngine();
+	try { e.assetPreloadAudio(path).get(); } catch(Exception ex) { throw new IllegalStateException(ex); }
+	return bh -> { int h = e.audioPlay(path); e.audioRemove(h); bh.consume(h); };
+    }
+    @Override public Case frame(String scene) {
+	Random r = new Random(1);
+	switch(scene) {
+	    case "sprites": return step(sprites(sheet(false), 1));
+	    case "sprites-opaque": return step(sprites(sheet(true), 1));
+	    case "sprites-zoomed": { JGameEngine e = sprites(sheet(false), 1); e.cameraDistance(0.5); return step(e); }
+	    case "sprites-profiled": { JGameEngine e = sprites(sheet(false), 1); e.profilerEnable(true); return step(e); }
+	    case "sprites-traced": { JGameEngine e = sprites(sheet(false), 1); e.traceRecord(10); return step(e); }
+	    case "still": return step(sprites(sheet(false), 0));
+	    case "still-dirty": { JGameEngine e = sprites(sheet(false), 0); e.frameDirtyRegions(true); return step(e); }
+	    case "moving-dirty": {
+		JGameEngine e = sprites(sheet(false), 0);
+		e.frameDirtyRegions(true);
+		JGameEngine.Sprite moving = e.sprite(sheet(false).getPath(), 4, 32, 4, 32);
+		e.spriteAdd(moving);
+		return bh -> { moving.x = (moving.x + 1) % 800; e.headlessStep(1); bh.consume(e); };
+	    }
+	    case "world": {
+		JGameEngine e = new JGameEngine();
+		e.setGameSpace(40000, 40000);
+		e.setHeadless(800, 450, true);
+		String path = sheet(false).getPath();
+		for(int i = 0; i < 50000; i++) {
+		    JGameEngine.Sprite s = e.sprite(path, 4, 32, 4, 32);
+		    s.x = r.nextInt(40000); s.y = r.nextInt(40000); s.depth = r.nextInt(4); s.fixed = true;
+		    e.spriteAdd(s);
+		}
+		e.cameraX(20000); e.cameraY(20000);
+		return bh -> { e.cameraX(e.cameraX() + 1); e.headlessStep(1); bh.consume(e); };
+	    }
+	    case "scenery": case "background": {
+		JGameEngine e = new JGameEngine();
+		e.setGameSpace(4000, 2250);
+		e.setHeadless(800, 450, true);
+		String path = sheet(false).getPath();
+		for(int i = 0; i < 5000; i++) {
+		    JGameEngine.Sprite s = e.sprite(path, 4, 32, 4, 32);
+		    s.x = r.nextInt(4000); s.y = r.nextInt(2250); s.image_index = r.nextInt(16); s.fixed = true; s.background = scene.equals("background");
+		    e.spriteAdd(s);
+		}
+		return bh -> { e.cameraX((e.cameraX() + 2) % 3200); e.headlessStep(1); bh.consume(e); };
+	    }
+	    case "tiles": {
+		JGameEngine e = new JGameEngine();
+		e.setGameSpace(16000, 16000);
+		e.setHeadless(800, 450, true);
+		JGameEngine.TileLayer layer = e.tileLayer(sheet(false).getPath(), 32, 32, 500, 500);
+		for(int i = 0; i < 500; i++) for(int j = 0; j < 500; j++) layer.setTile(i, j, r.nextInt(17));
+		e.spriteAdd(layer);
+		return bh -> { e.cameraX((e.cameraX() + 3) % 15000); e.headlessStep(1); bh.consume(e); };
+	    }
+	    case "clock": case "score": {
+		JGameEngine e = new JGameEngine();
+		e.setGameSpace(4000, 2250);
+		e.setHeadless(800, 450, true);
+		e.objectAdd(new Clock(e, scene.equals("score")));
+		return step(e);
+	    }
+	    case "update-serial": case "update-parallel": {
+		JGameEngine e = new JGameEngine();
+		e.setHeadless();
+		for(int i = 0; i < 2000; i++) e.objectAdd(scene.equals("update-parallel") ? new Thinker.Independent() : new Thinker());
+		return step(e);
+	    }
+	    case "remove-add": {
+		JGameEngine e = objects(1000);
+		JGameEngine.Object last = e.objectGet(e.objectCount() - 1);
+		return bh -> { e.objectRemove(last); e.headlessStep(1); e.objectAdd(last); e.headlessStep(1); bh.consume(e); };
+	    }
+	    case "spawn-new": case "spawn-pool": {
+		boolean pooled = scene.equals("spawn-pool");
+		JGameEngine e = new JGameEngine();
+		e.setGameSpace(4000, 2250);
+		e.setHeadless(800, 450, false);
+		String path = sheet(false).getPath();
+		JGameEngine.Pool<Bullet> pool = e.objectPool(() -> new Bullet(e, path));
+		Bullet[] fired = new Bullet[100];
+		return bh -> {
+		    for(int i = 0; i < fired.length; i++) if(pooled) fired[i] = pool.acquire(); else e.objectAdd(fired[i] = new Bullet(e, path));
+		    e.headlessStep(1);
+		    for(int i = 0; i < fired.length; i++) if(pooled) pool.release(fired[i]); else fired[i].remove();
+		    e.headlessStep(1);
+		    bh.consume(e);
+		};
+	    }
+	}
+	throw new IllegalArgumentException("No scene " + scene);
+    }
+    private static Case step(JGameEngine e) { return bh -> { e.headlessStep(1); bh.consume(e); }; }
+    // A headless game space with the given number of square masks spread around it
+    private static JGameEngine space(int masks, int width, int height, String broadphase) {
+	JGameEngine e = new JGameEngine();
+	e.setGameSpace(width, height, broadphase);
+	e.setHeadless(800, 450, false);
+	Random r = new Random(0);
+	for(int i = 0; i < masks; i++) {
+	    Idle o = new Idle(); o.x = r.nextInt(width); o.y = r.nextInt(height);
+	    e.objectAdd(o); e.collisionMaskAdd(o, 0, 0, 16, 16);
+	}
+	return e;
+    }
+    // A headless game with the given number of objects, named Enemy0 to Enemy9 in turn
+    private static JGameEngine objects(int objects) {
+	JGameEngine e = new JGameEngine();
+	e.setHeadless();
+	for(int i = 0; i < objects; i++) {
+	    Idle o = new Idle(); o.name = "Enemy" + (i % 10);
+	    e.objectAdd(o);
+	}
+	e.headlessStep(1);
+	return e;
+    }
+    // A headless game space drawing 100 sprites from the sheet, animated at the given speed
+    private static JGameEngine sprites(File sheet, double speed) {
+	JGameEngine e = new JGameEngine();
+	e.setGameSpace(4000, 2250);
+	e.setHeadless(800, 450, true);
+	Random r = new Random(1);
+	for(int i = 0; i < 100; i++) {
+	    JGameEngine.Sprite s = e.sprite(sheet.getPath(), 4, 32, 4, 32);
+	    s.x = r.nextInt(800); s.y = r.nextInt(450); s.image_speed = speed;
+	    e.spriteAdd(s);
+	}
+	return e;
+    }
+    // A 4x4 sprite sheet of 32x32 frames, a translucent png or an opaque jpg (which ImageIO reads as a 3 byte image)
+    private static File sheet(boolean opaque) {
+	BufferedImage img = new BufferedImage(128, 128, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+	Graphics2D g = img.createGraphics();
+	for(int i = 0; i < 16; i++) { g.setColor(new Color(i * 16, 255 - i * 16, 128, opaque ? 255 : 200)); g.fillOval((i % 4) * 32, (i / 4) * 32, 32, 32); }
+	g.dispose();
+	try {
+	    File f = File.createTempFile("jgameengine-bench", opaque ? ".jpg" : ".png");
+	    f.deleteOnExit();
+	    ImageIO.write(img, opaque ? "jpg" : "png", f);
+	    return f;
+	} catch(IOException e) { throw new UncheckedIOException(e); }
+    }
+    // Half a second of a 440Hz tone as a mono 22050Hz wav, so playing it is resampled
+    private static File tone() {
+	AudioFormat format = new AudioFormat(22050, 16, 1, true, false);
+	byte[] data = new byte[22050];
+	for(int i = 0; i < data.length / 2; i++) { int s = (int) (Math.sin(i * 2 * Math.PI * 440 / 22050) * 8000); data[i * 2] = (byte) s; data[i * 2 + 1] = (byte) (s >> 8); }
+	try {
+	    File f = File.createTempFile("jgameengine-bench", ".wav");
+	    f.deleteOnExit();
+	    AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data), format, data.length / 2), AudioFileFormat.Type.WAVE, f);
+	    return f;
+	} catch(IOException e) { throw new UncheckedIOException(e); }
+    }
+    // An object with some work to do in update(), like an AI deciding where to go
+    private static class Thinker extends JGameEngine.Object {
+	private double heading;
+	@Override public void start() { }
+	@Override public void update() { for(int i = 0; i < 200; i++) heading = Math.atan2(Math.sin(heading + i), Math.cos(heading - i)); x += Math.cos(heading); y += Math.sin(heading); }
+	private static class Independent extends Thinker implements JGameEngine.Parallel { }
+    }
+    // Draws the time in the middle of the screen like the dummyClock of Driver, or a score and some labels
+    private static class Clock extends JGameEngine.Object {
+	private final JGameEngine e;
+	private final boolean score;
+	private long frame;
+	Clock(JGameEngine e, boolean score) { this.e = e; this.score = score; }
+	@Override public void start() { }
+	@Override public void update() {
+	    frame++;
+	    String time = score ? "Score " + frame / 60 : String.valueOf(1600000000000L + frame * 16);
+	    e.textSize(64);
+	    e.drawText(time, e.cameraWidth() / 2 - e.textWidth(time) / 2, e.cameraHeight() / 2);
+	    if(score) for(int i = 0; i < 10; i++) { e.textSize(20); e.drawText("Label " + i % 5, 20, 30 + i * 30); }
+	}
+    }
+    // A shot that makes its sprite and collision mask in start(), as a game would
+    private static class Bullet extends JGameEngine.Object implements JGameEngine.Collision {
+	private final JGameEngine e;
+	private final String image;
+	private JGameEngine.Sprite sprite;
+	private JGameEngine.CollisionMask mask;
+	Bullet(JGameEngine e, String image) { this.e = e; this.image = image; }
+	@Override public void start() { e.spriteAdd(sprite = e.sprite(this, image, 4, 32, 4, 32)); mask = e.collisionMaskAdd(this, 0, 0, 8, 8); }
+	@Override public void update() { x += 4; }
+	@Override public void collision(JGameEngine.Object with) { }
+	// What a game without a pool does once the shot is gone
+	void remove() { e.spriteRemove(sprite); e.spriteDispose(sprite); e.collisionMaskRemove(mask); e.objectRemove(this); }
+    }
+    private static class Idle extends JGameEngine.Object implements JGameEngine.Collision {
+	@Override public void start() { }
+	@Override public void update() { }
+	@Override public void collision(JGameEngine.Object with) { }
+    }
+}
@@ -0,0 +1,21 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Starting a sound effect, as a game does for every shot. It is mixed without being heard when there is no sound device
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AudioBenchmark {
+    @State(Scope.Benchmark)
+    public static class Effect {
+	Case play;
+	@Setup public void setup() { play = Cases.get().audioPlay(); }
+    }
+
+    @Benchmark public void audioPlay(Effect e, Blackhole bh) { e.play.run(bh); }
+}
@@ -0,0 +1,8 @@
+package jgameengine.benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+// One thing the engine does, set up and ready to be timed. Whatever it returns goes into the Blackhole
+public interface Case {
+    public abstract void run(Blackhole bh);
+}
@@ -0,0 +1,36 @@
+package jgameengine.benchmarks;
+
+// Sets up the cases the benchmarks time. JMH only runs benchmarks that are in a package, and the engine is in the default package, 
+// which can't be imported from one. So the cases are made next to it by EngineCases (in the default package), found by its name
+public interface Cases {
+    /** Find and check the collisions of a still Game Space with the given broad phase and number of 16x16 masks. The layout is "open" (4000x2250), 
+     "level" (a 40000x600 side-scroller) or "layered" (4000x2250, one mask in ten is on a layer that only the others collide with) */
+    public abstract Case runCollisions(String broadphase, int masks, String layout, boolean parallel);
+    /** Check if two overlapping masks touch, shapes is "rect-rect", "circle-circle" or "rect-circle" */
+    public abstract Case collisionCheck(String shapes);
+    /** Find the masks in a 200x200 box of an open Game Space with the given number of masks */
+    public abstract Case collisionBoxTest(String broadphase, int masks);
+    /** Make a sprite from a sheet other sprites already use and dispose of it */
+    public abstract Case sprite();
+    /** Find the objects with a name among the given number of objects, one in ten has it. into reuses the same list */
+    public abstract Case objectsFind(int objects, boolean into);
+    /** Get the list of objects of the class of an object among the given number of objects */
+    public abstract Case objectList(int objects);
+    /** Look up the handle of a key by its name */
+    public abstract Case key(String name);
+    /** Check if a key is held by its name or by its handle */
+    public abstract Case keyPressing(String name, boolean handle);
+    /** Change the font size to one of two sizes and back */
+    public abstract Case textSize();
+    /** Change the font to a system font */
+    public abstract Case textFontSystem();
+    /** Start a sound effect that is already decoded and stop it again */
+    public abstract Case audioPlay();
+    /** Run one whole frame of a headless game (two for the scenes that add and remove things, which only happens between frames). See FramesBenchmark for the scenes */
+    public abstract Case frame(String scene);
+
+    public static Cases get() {
+	try { return (Cases) Class.forName("EngineCases").getDeclaredConstructor().newInstance(); }
+	catch(ReflectiveOperationException e) { throw new IllegalStateException("EngineCases isn't on the class path", e); }
+    }
+}
@@ -0,0 +1,40 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The collision phase of a frame, the narrow phase test of each pair of shapes and box queries
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionsBenchmark {
+    @State(Scope.Benchmark)
+    public static class Space {
+	@Param({ "quadtree", "sweep" }) public String broadphase;
+	@Param({ "100", "1000", "10000" }) public int masks;
+	@Param({ "open", "level", "layered" }) public String layout;
+	@Param({ "false", "true" }) public boolean parallel;
+	Case run;
+	@Setup public void setup() { run = Cases.get().runCollisions(broadphase, masks, layout, parallel); }
+    }
+    @State(Scope.Benchmark)
+    public static class Pair {
+	@Param({ "rect-rect", "circle-circle", "rect-circle" }) public String shapes;
+	Case check;
+	@Setup public void setup() { check = Cases.get().collisionCheck(shapes); }
+    }
+    @State(Scope.Benchmark)
+    public static class Boxes {
+	@Param({ "quadtree", "sweep" }) public String broadphase;
+	@Param({ "100", "1000", "10000" }) public int masks;
+	Case test;
+	@Setup public void setup() { test = Cases.get().collisionBoxTest(broadphase, masks); }
+    }
+
+    @Benchmark public void runCollisions(Space s, Blackhole bh) { s.run.run(bh); }
+    @Benchmark public void check(Pair p, Blackhole bh) { p.check.run(bh); }
+    @Benchmark public void collisionBoxTest(Boxes b, Blackhole bh) { b.test.run(bh); }
+}
@@ -0,0 +1,22 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Changing fonts, which looks them up in the font registry
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FontsBenchmark {
+    @State(Scope.Benchmark)
+    public static class Fonts {
+	Case size, system;
+	@Setup public void setup() { Cases cases = Cases.get(); size = cases.textSize(); system = cases.textFontSystem(); }
+    }
+
+    @Benchmark public void textSize(Fonts f, Blackhole bh) { f.size.run(bh); }
+    @Benchmark public void textFontSystem(Fonts f, Blackhole bh) { f.system.run(bh); }
+}
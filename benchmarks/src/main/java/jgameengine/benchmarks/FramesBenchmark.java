@@ -0,0 +1,35 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Whole frames of headless games drawing into an 800x450 image, for the costs that only show up in a whole frame.
+// The scenes:
+//   sprites, sprites-opaque, sprites-zoomed    100 animated sprites on camera (from a jpg, at camera distance 0.5)
+//   sprites-profiled, sprites-traced           the same with the profiler timing every phase, or the trace recorder recording it
+//   still, still-dirty, moving-dirty           a menu of 100 sprites that don't move, drawn in full or with dirty regions, and with one sprite moving over it
+//   world                                      50000 fixed sprites in a 40000x40000 Game Space with a scrolling camera
+//   scenery, background                        5000 fixed sprites around a scrolling camera (about 800 on camera), drawn one by one or baked into the background
+//   tiles                                      a 500x500 tile layer scrolling past
+//   clock, score                               text that changes every frame, or a score and labels that hardly ever change
+//   update-serial, update-parallel             2000 objects with some work in update(), with and without JGameEngine.Parallel
+//   remove-add                                 removing one of 1000 objects and adding it again
+//   spawn-new, spawn-pool                      firing 100 shots with a sprite and a collision mask each and removing them, made new every time or taken from a pool
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FramesBenchmark {
+    @State(Scope.Benchmark)
+    public static class Scene {
+	@Param({ "sprites", "sprites-opaque", "sprites-zoomed", "sprites-profiled", "sprites-traced", "still", "still-dirty", "moving-dirty", "world", "scenery", "background", 
+		 "tiles", "clock", "score", "update-serial", "update-parallel", "remove-add", "spawn-new", "spawn-pool" })
+	public String scene;
+	Case frame;
+	@Setup public void setup() { frame = Cases.get().frame(scene); }
+    }
+
+    @Benchmark public void frame(Scene s, Blackhole bh) { s.frame.run(bh); }
+}
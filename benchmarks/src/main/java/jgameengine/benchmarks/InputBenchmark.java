@@ -0,0 +1,27 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Looking up keys by their names, and checking them by name and by handle
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class InputBenchmark {
+    @State(Scope.Benchmark)
+    public static class Keys {
+	@Param({ "A", "space" }) public String name;
+	Case key, pressing, handle;
+	@Setup public void setup() {
+	    Cases cases = Cases.get();
+	    key = cases.key(name); pressing = cases.keyPressing(name, false); handle = cases.keyPressing(name, true);
+	}
+    }
+
+    @Benchmark public void key(Keys k, Blackhole bh) { k.key.run(bh); }
+    @Benchmark public void keyPressing(Keys k, Blackhole bh) { k.pressing.run(bh); }
+    @Benchmark public void keyPressingHandle(Keys k, Blackhole bh) { k.handle.run(bh); }
+}
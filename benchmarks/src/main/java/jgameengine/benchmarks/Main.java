@@ -0,0 +1,15 @@
+package jgameengine.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the benchmarks like JMH's own Main does (it takes the same arguments), with the gc profiler so every result comes with 
+// how much it allocated, unless other profilers are asked for
+public class Main {
+    public static void main(String[] args) throws Exception {
+	List<String> all = new ArrayList<>(Arrays.asList(args));
+	if(!all.contains("-prof")) { all.add("-prof"); all.add("gc"); }
+	org.openjdk.jmh.Main.main(all.toArray(new String[0]));
+    }
+}
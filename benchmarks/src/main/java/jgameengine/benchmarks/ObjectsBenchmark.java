@@ -0,0 +1,27 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Looking up objects by name and by class
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ObjectsBenchmark {
+    @State(Scope.Benchmark)
+    public static class Registry {
+	@Param({ "100", "1000", "10000" }) public int objects;
+	Case find, into, list;
+	@Setup public void setup() {
+	    Cases cases = Cases.get();
+	    find = cases.objectsFind(objects, false); into = cases.objectsFind(objects, true); list = cases.objectList(objects);
+	}
+    }
+
+    @Benchmark public void objectsFind(Registry r, Blackhole bh) { r.find.run(bh); }
+    @Benchmark public void objectsFindInto(Registry r, Blackhole bh) { r.into.run(bh); }
+    @Benchmark public void objectList(Registry r, Blackhole bh) { r.list.run(bh); }
+}
@@ -0,0 +1,21 @@
+package jgameengine.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Making a sprite from a sheet, which reuses the frames other sprites of it already have
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SpritesBenchmark {
+    @State(Scope.Benchmark)
+    public static class Sheet {
+	Case sprite;
+	@Setup public void setup() { sprite = Cases.get().sprite(); }
+    }
+
+    @Benchmark public void sprite(Sheet s, Blackhole bh) { s.sprite.run(bh); }
+}